@@ -0,0 +1,391 @@
+/*
+  parallel version of ConvertTxtToTbl. the <tablename>.txt file is
+  split into chunks at line boundaries and each chunk is parsed by
+  its own thread into a page file of its own. the page files are then
+  concatenated into <tablename>.tbl, see qp.utils.TableWriter.append.
+  the <tablename>.stat file is written in the same pass.
+  with -hash or -range every thread writes a page file per partition,
+  and those of each partition are concatenated into <tablename>.p<i>.tbl
+  fields of each line are delimited by white space as in ConvertTxtToTbl
+*/
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.HyperLogLog;
+import qp.utils.Partitioning;
+import qp.utils.Schema;
+import qp.utils.TableWriter;
+import qp.utils.Tuple;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class BulkLoad {
+
+    static final int DEFAULT_PAGE_SIZE = 4096;      // Number of bytes per page if not given
+    static final long MIN_CHUNK_SIZE = 1 << 20;     // Smallest number of bytes worth a thread of its own
+    static final int READ_BUFFER_SIZE = 1 << 16;    // Number of bytes read from the .txt file at a time
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            usage();
+        }
+        String tblname = args[0];
+        String txtfile = tblname + ".txt";
+        String tblfile = tblname + ".tbl";
+        int pagesize = DEFAULT_PAGE_SIZE;
+        int pagelayout = TableWriter.ROW_LAYOUT;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean dictionary = false;
+        boolean compressed = false;
+        String[] partitionArgs = null;  // -hash or -range, the attribute and the partitions
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("-columnar")) {
+                pagelayout = TableWriter.COLUMN_LAYOUT;
+            } else if (args[i].equals("-dict")) {
+                dictionary = true;
+            } else if (args[i].equals("-compress")) {
+                compressed = true;
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                numThreads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if ((args[i].equals("-hash") || args[i].equals("-range")) && i + 2 < args.length) {
+                partitionArgs = new String[]{args[i], args[i + 1], args[i + 2]};
+                i += 2;
+            } else {
+                pagesize = Integer.parseInt(args[i]);
+            }
+        }
+        Batch.setPageSize(pagesize);
+
+        Schema schema = null;
+        try (ObjectInputStream ins = new ObjectInputStream(new FileInputStream(tblname + ".md"))) {
+            schema = (Schema) ins.readObject();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        /** The partitioning is recorded in the schema, so the .md file is written again **/
+        Partitioning partitioning = null;
+        if (partitionArgs != null) {
+            partitioning = Partitioning.parse(schema, partitionArgs[0], partitionArgs[1], partitionArgs[2]);
+            if (partitioning == null) {
+                System.exit(1);
+            }
+        }
+        if (partitioning != null || schema.getPartitioning() != null) {
+            schema.setPartitioning(partitioning);
+            try (ObjectOutputStream outs = new ObjectOutputStream(new FileOutputStream(tblname + ".md"))) {
+                outs.writeObject(schema);
+            }
+        }
+        int numPartitions = partitioning == null ? 1 : partitioning.getNumPartitions();
+
+        /** Split the input into chunks that start right after a newline **/
+        long[] bounds = splitFile(txtfile, numThreads);
+        Loader[] loaders = new Loader[bounds.length - 1];
+        for (int i = 0; i < loaders.length; ++i) {
+            /** Pages are compressed by the threads, unless they are re-encoded for the dictionary anyway **/
+            loaders[i] = new Loader(txtfile, bounds[i], bounds[i + 1], tblfile + ".part" + i,
+                    schema, pagelayout, compressed && !dictionary, partitioning);
+            loaders[i].start();
+        }
+        for (Loader loader : loaders) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.exit(1);
+            }
+        }
+
+        /** Report the first bad line, counting the lines of the chunks before it **/
+        long linesBefore = 0;
+        for (Loader loader : loaders) {
+            if (loader.error != null) {
+                System.err.println(loader.error + " at line " + (linesBefore + loader.linenum));
+                deleteParts(loaders);
+                System.exit(1);
+            }
+            linesBefore += loader.linenum;
+        }
+
+        /** Concatenate the pages of every chunk in order, the chunks are
+         ** dictionary encoded against a single dictionary while doing so
+         **/
+        long numtuple = 0;
+        for (int p = 0; p < numPartitions; ++p) {
+            String filename = partitioning == null ? tblfile : Partitioning.fileName(tblname, p);
+            TableWriter outtbl = new TableWriter(filename, schema, Batch.getPageSize(), pagelayout);
+            outtbl.setDictionaryEncoded(dictionary);
+            outtbl.setCompressed(compressed);
+            if (!outtbl.open()) {
+                deleteParts(loaders);
+                System.exit(1);
+            }
+            for (Loader loader : loaders) {
+                if (!outtbl.append(loader.partFile(p))) {
+                    deleteParts(loaders);
+                    System.exit(1);
+                }
+            }
+            outtbl.close();
+            numtuple += outtbl.getNumTuple();
+        }
+        deleteParts(loaders);
+
+        writeStatistics(tblname + ".stat", schema, numtuple, loaders);
+    }
+
+    private static void usage() {
+        System.out.println("usage: java BulkLoad <tablename> [pagesize] [-columnar] [-dict] [-compress] [-threads n]"
+                + " [-hash <attribute> <n> | -range <attribute> <bound,bound,...>]"
+                + " \n creats <tablename>.tbl and <tablename>.stat files, or <tablename>.p<i>.tbl files for each partition i");
+        System.exit(1);
+    }
+
+    /**
+     * Returns the start offsets of the chunks followed by the file size.
+     * Each chunk other than the first starts right after a newline
+     **/
+    static long[] splitFile(String txtfile, int numChunks) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(txtfile, "r")) {
+            long size = file.length();
+            numChunks = (int) Math.max(1, Math.min(numChunks, size / MIN_CHUNK_SIZE));
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            for (int i = 1; i < numChunks; ++i) {
+                long pos = Math.max(size * i / numChunks, bounds.get(bounds.size() - 1));
+                file.seek(pos);
+                int c;
+                while ((c = file.read()) != -1 && c != '\n') {
+                    pos++;
+                }
+                if (c == -1) break;
+                bounds.add(pos + 1);
+            }
+            bounds.add(size);
+            long[] result = new long[bounds.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = bounds.get(i);
+            }
+            return result;
+        }
+    }
+
+    private static void deleteParts(Loader[] loaders) {
+        for (Loader loader : loaders) {
+            for (int p = 0; p < loader.outs.length; ++p) {
+                new File(loader.partFile(p)).delete();
+            }
+        }
+    }
+
+    /**
+     * Same format as written by RandomDB: number of tuples, then distinct values per
+     * attribute, estimated from the sketches of all the chunks
+     **/
+    private static void writeStatistics(String statfile, Schema schema, long numtuple, Loader[] loaders) throws IOException {
+        try (PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(statfile)))) {
+            outstat.print(numtuple);
+            outstat.println();
+            for (int i = 0; i < schema.getNumCols(); ++i) {
+                HyperLogLog distinct = loaders[0].distinct[i];
+                for (int j = 1; j < loaders.length; ++j) {
+                    distinct.merge(loaders[j].distinct[i]);
+                }
+                outstat.print(Math.min(distinct.estimate(), numtuple) + "\t");
+            }
+            outstat.println();
+        }
+    }
+
+    /**
+     * Parses the lines of one chunk of the .txt file and writes them into a
+     * page file of its own per partition, with a sketch of the distinct values
+     * of each attribute
+     **/
+    static class Loader extends Thread {
+
+        final String txtfile;      // Input file
+        final long start;          // Offset of the first byte of the chunk
+        final long end;            // Offset just past the last byte of the chunk
+        final String partfile;     // Page file written for this chunk, with the partition appended
+        final Schema schema;       // Schema of the table
+        final int pagelayout;      // TableWriter.ROW_LAYOUT or TableWriter.COLUMN_LAYOUT
+        final boolean compressed;  // Whether the pages are compressed
+        final Partitioning partitioning;  // How the rows are split into partitions (null: not partitioned)
+        final int partitionIndex;  // Index of the partitioning attribute
+        final TableWriter[] outs;  // Page file of each partition
+
+        HyperLogLog[] distinct;      // Distinct values of each attribute within the chunk
+        long linenum = 0;            // Number of lines read
+        String error = null;         // Reason the chunk could not be loaded, if any
+
+        Loader(String txtfile, long start, long end, String partfile, Schema schema, int pagelayout,
+               boolean compressed, Partitioning partitioning) {
+            this.txtfile = txtfile;
+            this.start = start;
+            this.end = end;
+            this.partfile = partfile;
+            this.schema = schema;
+            this.pagelayout = pagelayout;
+            this.compressed = compressed;
+            this.partitioning = partitioning;
+            partitionIndex = partitioning == null ? -1 : schema.indexOf(partitioning.getAttribute());
+            outs = new TableWriter[partitioning == null ? 1 : partitioning.getNumPartitions()];
+            distinct = new HyperLogLog[schema.getNumCols()];
+            for (int i = 0; i < distinct.length; ++i) {
+                distinct[i] = new HyperLogLog();
+            }
+        }
+
+        /** Page file written for the given partition of this chunk **/
+        String partFile(int partition) {
+            return partitioning == null ? partfile : partfile + ".p" + partition;
+        }
+
+        public void run() {
+            for (int p = 0; p < outs.length; ++p) {
+                outs[p] = new TableWriter(partFile(p), schema, Batch.getPageSize(), pagelayout);
+                outs[p].setCompressed(compressed);
+                if (!outs[p].open()) {
+                    error = "Cannot write " + partFile(p);
+                    return;
+                }
+            }
+            int numCols = schema.getNumCols();
+            int[] types = new int[numCols];
+            for (int i = 0; i < numCols; ++i) {
+                types[i] = schema.typeOf(i);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(txtfile, "r")) {
+                file.seek(start);
+                byte[] buf = new byte[READ_BUFFER_SIZE];
+                byte[] line = new byte[256];
+                int len = 0;                  // Bytes of the current line read so far
+                long remaining = end - start;
+                while (remaining > 0 && error == null) {
+                    int n = file.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) break;
+                    remaining -= n;
+                    int from = 0;
+                    for (int i = 0; i < n && error == null; ++i) {
+                        if (buf[i] != '\n') continue;
+                        /** A whole line is buffered, parse it from buf if it started within buf **/
+                        if (len == 0) {
+                            parse(buf, from, i, types);
+                        } else {
+                            line = appendTo(line, len, buf, from, i);
+                            parse(line, 0, len + i - from, types);
+                            len = 0;
+                        }
+                        from = i + 1;
+                    }
+                    /** Keep the start of a line that continues in the next read **/
+                    line = appendTo(line, len, buf, from, n);
+                    len += n - from;
+                }
+                if (len > 0 && error == null) {
+                    parse(line, 0, len, types);  // Last line without a newline
+                }
+            } catch (IOException io) {
+                error = "Error reading " + txtfile + ": " + io.getMessage();
+            }
+            for (TableWriter out : outs) {
+                out.close();
+            }
+        }
+
+        // Helper method to load one line, setting error if it is malformed
+        private void parse(byte[] bytes, int from, int to, int[] types) {
+            linenum++;
+            Tuple tuple = parseLine(bytes, from, to, types);
+            if (tuple == null) {
+                /** Blank lines are skipped as ConvertTxtToTbl tokenizes them to nothing **/
+                if (!isBlank(bytes, from, to)) error = "Invalid data";
+                return;
+            }
+            TableWriter out = outs[0];
+            if (partitioning != null) {
+                out = outs[partitioning.partitionOf(tuple.dataAt(partitionIndex))];
+            }
+            if (!out.next(tuple)) {
+                error = "Invalid data";
+                return;
+            }
+            for (int i = 0; i < types.length; ++i) {
+                distinct[i].add(tuple, i);
+            }
+        }
+
+        // Helper method to append bytes [from, to) of src after the first len bytes of line
+        private static byte[] appendTo(byte[] line, int len, byte[] src, int from, int to) {
+            int needed = len + to - from;
+            if (needed > line.length) {
+                byte[] bigger = new byte[Math.max(needed, 2 * line.length)];
+                System.arraycopy(line, 0, bigger, 0, len);
+                line = bigger;
+            }
+            System.arraycopy(src, from, line, len, to - from);
+            return line;
+        }
+
+        private static boolean isWhite(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == '\n';
+        }
+
+        private static boolean isBlank(byte[] line, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                if (!isWhite(line[i])) return false;
+            }
+            return true;
+        }
+
+        /** Splits the line on white space and converts each field, null if malformed **/
+        private static Tuple parseLine(byte[] line, int from, int len, int[] types) {
+            ArrayList<Object> data = new ArrayList<>(types.length);
+            int pos = from;
+            for (int type : types) {
+                while (pos < len && isWhite(line[pos])) pos++;
+                if (pos == len) return null;
+                int field = pos;
+                while (pos < len && !isWhite(line[pos])) pos++;
+                try {
+                    if (type == Attribute.INT) {
+                        data.add(parseInt(line, field, pos));
+                    } else if (type == Attribute.REAL) {
+                        data.add(Float.parseFloat(new String(line, field, pos - field, StandardCharsets.ISO_8859_1)));
+                    } else if (type == Attribute.STRING) {
+                        data.add(new String(line, field, pos - field, StandardCharsets.UTF_8));
+                    } else {
+                        return null;
+                    }
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            while (pos < len && isWhite(line[pos])) pos++;
+            if (pos != len) return null;  // More fields than attributes
+            return new Tuple(data);
+        }
+
+        /** Integer.parseInt on the bytes of the field, without building a String **/
+        private static int parseInt(byte[] line, int from, int to) {
+            boolean negative = line[from] == '-';
+            int i = (negative || line[from] == '+') ? from + 1 : from;
+            if (i == to || to - i > 9) {
+                return Integer.parseInt(new String(line, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+            int value = 0;
+            for (; i < to; ++i) {
+                int digit = line[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException();
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+    }
+
+}
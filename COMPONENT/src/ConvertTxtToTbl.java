@@ -3,10 +3,15 @@
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+  the table is written as a page file, see qp.utils.TableWriter, or as
+  one page file per partition with -hash or -range, see qp.utils.Partitioning
 */
 
 import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Partitioning;
 import qp.utils.Schema;
+import qp.utils.TableWriter;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -15,19 +20,40 @@ import java.util.StringTokenizer;
 
 public class ConvertTxtToTbl {
 
+    static final int DEFAULT_PAGE_SIZE = 4096;  // Number of bytes per page if not given
+
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
-            System.exit(1);
+        if (args.length < 1 || args.length > 8) {
+            usage();
         }
         String tblname = args[0];
         String mdfile = tblname + ".md";
         String tblfile = tblname + ".tbl";
+        int pagesize = DEFAULT_PAGE_SIZE;
+        int pagelayout = TableWriter.ROW_LAYOUT;
+        boolean dictionary = false;
+        boolean compressed = false;
+        String[] partitionArgs = null;  // -hash or -range, the attribute and the partitions
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("-columnar")) {
+                pagelayout = TableWriter.COLUMN_LAYOUT;
+            } else if (args[i].equals("-dict")) {
+                dictionary = true;
+            } else if (args[i].equals("-compress")) {
+                compressed = true;
+            } else if (args[i].equals("-hash") || args[i].equals("-range")) {
+                if (i + 2 >= args.length) usage();
+                partitionArgs = new String[]{args[i], args[i + 1], args[i + 2]};
+                i += 2;
+            } else {
+                pagesize = Integer.parseInt(args[i]);
+            }
+        }
+        Batch.setPageSize(pagesize);
 
-        /** open the input and output streams **/
+        /** open the input stream **/
         BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
 
         /** First Line is METADATA **/
         int linenum = 0;
@@ -36,11 +62,41 @@ public class ConvertTxtToTbl {
         try {
             ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
             schema = (Schema) ins.readObject();
+            ins.close();
         } catch (ClassNotFoundException ce) {
             System.out.println("class not found exception --- error in schema object file");
             System.exit(1);
         }
 
+        /** The partitioning is recorded in the schema, so the .md file is written again **/
+        Partitioning partitioning = null;
+        if (partitionArgs != null) {
+            partitioning = Partitioning.parse(schema, partitionArgs[0], partitionArgs[1], partitionArgs[2]);
+            if (partitioning == null) {
+                System.exit(1);
+            }
+        }
+        if (partitioning != null || schema.getPartitioning() != null) {
+            schema.setPartitioning(partitioning);
+            ObjectOutputStream outs = new ObjectOutputStream(new FileOutputStream(mdfile));
+            outs.writeObject(schema);
+            outs.close();
+        }
+
+        /** open the output page files, one per partition **/
+        int numPartitions = partitioning == null ? 1 : partitioning.getNumPartitions();
+        int partitionIndex = partitioning == null ? -1 : schema.indexOf(partitioning.getAttribute());
+        TableWriter[] outtbls = new TableWriter[numPartitions];
+        for (int i = 0; i < numPartitions; ++i) {
+            String filename = partitioning == null ? tblfile : Partitioning.fileName(tblname, i);
+            outtbls[i] = new TableWriter(filename, schema, Batch.getPageSize(), pagelayout);
+            outtbls[i].setDictionaryEncoded(dictionary);
+            outtbls[i].setCompressed(compressed);
+            if (!outtbls[i].open()) {
+                System.exit(1);
+            }
+        }
+
         boolean flag = false;
         StringTokenizer tokenizer;
         while ((line = in.readLine()) != null) {
@@ -66,10 +122,26 @@ public class ConvertTxtToTbl {
                 attrIndex++;
             }
             Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            TableWriter outtbl = outtbls[0];
+            if (partitioning != null && partitionIndex < data.size()) {
+                outtbl = outtbls[partitioning.partitionOf(data.get(partitionIndex))];
+            }
+            if (!outtbl.next(tuple)) {
+                System.err.println("Invalid data at line " + linenum);
+                System.exit(1);
+            }
+        }
+        for (TableWriter outtbl : outtbls) {
+            outtbl.close();
         }
-        outtbl.close();
         in.close();
     }
 
+    private static void usage() {
+        System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] [-columnar] [-dict] [-compress]"
+                + " [-hash <attribute> <n> | -range <attribute> <bound,bound,...>]"
+                + " \n creats <tablename>.tbl files, or <tablename>.p<i>.tbl files for each partition i");
+        System.exit(1);
+    }
+
 }
@@ -3,7 +3,9 @@
  **/
 
 import qp.operators.Debug;
+import qp.operators.HashJoin;
 import qp.operators.Operator;
+import qp.operators.Scan;
 import qp.optimizer.BufferManager;
 import qp.optimizer.PlanCost;
 import qp.optimizer.RandomOptimizer;
@@ -26,6 +28,11 @@ public class QueryMain {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Batch.setPageSize(getPageSize(args, in));
+        configureScan();
+        configureTempFiles();
+        configureSort();
+        configureBatches();
+        configureJoins();
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
         configureBufferManager(sqlquery.getNumJoin(), sqlquery.getNumOrderBy(), sqlquery.isDistinct(), sqlquery.getNumAggregate(), args, in);
@@ -53,6 +60,50 @@ public class QueryMain {
         return pagesize;
     }
 
+    /**
+     * Scan options are given as system properties, e.g. java -Dqp.scan.mmap=true QueryMain ...
+     * qp.scan.mmap: memory-map the table files instead of reading them page by page
+     * qp.scan.prefetch: number of batches read ahead by a background thread
+     * qp.scan.vectorized: read the table files a column at a time into ColumnBatch pages
+     **/
+    private static void configureScan() {
+        Scan.setMemoryMapped(Boolean.getBoolean("qp.scan.mmap"));
+        Scan.setPrefetchDepth(Integer.getInteger("qp.scan.prefetch", 0));
+        Scan.setVectorized(Boolean.getBoolean("qp.scan.vectorized"));
+    }
+
+    /**
+     * qp.spill.compress: block compress the sorted runs and other temporary files
+     **/
+    private static void configureTempFiles() {
+        TempFile.setCompressed(Boolean.getBoolean("qp.spill.compress"));
+    }
+
+    /**
+     * qp.sort.replacement: make the first sorted runs of external sorts by replacement selection
+     * qp.sort.threads: number of threads sorting and merging the runs of external sorts
+     **/
+    private static void configureSort() {
+        Sort.setReplacementSelection(Boolean.getBoolean("qp.sort.replacement"));
+        Sort.setThreads(Integer.getInteger("qp.sort.threads", 1));
+    }
+
+    /**
+     * qp.batch.direct: keep the blocks of pages held by the joins in off-heap DirectBatch pages
+     **/
+    private static void configureBatches() {
+        DirectBatch.setEnabled(Boolean.getBoolean("qp.batch.direct"));
+    }
+
+    /**
+     * qp.join.hybrid: keep the partitions of the hash joins in memory while they fit (hybrid hash join)
+     * qp.join.bloom: push Bloom filters on the left join keys of the hash and sort-merge joins to the scan of their right input
+     **/
+    private static void configureJoins() {
+        HashJoin.setHybrid(Boolean.getBoolean("qp.join.hybrid"));
+        BloomFilter.setEnabled(Boolean.getBoolean("qp.join.bloom"));
+    }
+
     /**
      * Parse query from query file
      **/
@@ -123,6 +174,8 @@ public class QueryMain {
     public static Operator getQueryPlan(SQLQuery sqlquery) {
         Operator root = null;
 
+        /** Table files changed since the last query are read again by the catalog **/
+        Catalog.refresh();
         RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
         Operator planroot = optimizer.getOptimizedPlan();
 
@@ -186,6 +239,7 @@ public class QueryMain {
             for (int i = 0; i < resultbatch.size(); ++i) {
                 printTuple(resultbatch.get(i));
             }
+            root.release(resultbatch);
         }
         root.close();
         out.close();
@@ -193,6 +247,7 @@ public class QueryMain {
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        System.out.println("Batches allocated = " + Batch.getNumAllocated());
         return executiontime;
     }
 
@@ -222,7 +277,7 @@ public class QueryMain {
             } else if (data == null) {
                 out.print("-NULL-\t");
             } else {
-                out.print(((String) data) + "\t");
+                out.print(data + "\t");
             }
         }
         out.println();
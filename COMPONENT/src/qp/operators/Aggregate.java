@@ -55,6 +55,7 @@ public class Aggregate extends Operator {
                     aggregateAttr.get(j).setAggregateVal(currtuple);
                 }
             }
+            base.release(inbatch);
         }
         return true;
     }
@@ -64,16 +65,16 @@ public class Aggregate extends Operator {
      * @return A Batch containing the resultant tuples written out (including aggregate attributes)
      */
     public Batch next() {
-        Batch outbatch = new Batch(batchsize);
         if (outtuples.size() == 0) {
             return null;
         }
+        Batch outbatch = newBatch(batchsize);
 
         for (int i = 1; i <= batchsize; i++) {
             ArrayList<Object> updatedtuple = new ArrayList<>();
+            Tuple originaltuple;
             if (outtuples.size() > 0) {
-                Tuple originaltuple = outtuples.remove(0);
-                updatedtuple.addAll(originaltuple.data());
+                originaltuple = outtuples.remove(0);
                 for (int j = 0; j < attrset.size(); j++) {
                     if (attrset.get(j).getAggType() == Attribute.NONE) {
                         continue;
@@ -88,7 +89,8 @@ public class Aggregate extends Operator {
             } else {
                 break;
             }
-            Tuple outtuple = new Tuple(updatedtuple);
+            /** The aggregate values are appended to the slots of the tuple **/
+            Tuple outtuple = originaltuple.joinWith(new Tuple(updatedtuple));
             outbatch.add(outtuple);
             // AA: added +1 " + i + " " + batchsize + " " + outtuples.size() + " " + outbatch.size());
         }
@@ -7,6 +7,7 @@ package qp.operators;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.DirectBatch;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -25,8 +26,21 @@ public class BlockNestedJoin extends Join {
     Batch rightbatch;               // Buffer page for right input stream
     List<Batch> leftblock = new LinkedList<>();          // Left Block that contains M-2 buffer pages
     ArrayList<Tuple> leftTuples = new ArrayList<>();    // Flattened list of tuples (entire left block)
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    DirectBatch[] directBlock;      // Off-heap pages of the left block, when DirectBatch is enabled
+    int leftRows;                   // Number of tuples in the left block
+    int rowsPerPage;                // Number of tuples per page of directBlock
+    Batch pending;                  // Left batch only partly copied into the previous block
+    int pendingCurs;                // Cursor for the first tuple of pending not yet copied
+    InnerInput inner;               // Right input, read once per left block
+    int blockPages;                 // Number of pages of the left block
+    int rightbatchsize;             // Number of tuples per right batch read back from the file
     Boolean isCartesian;            // Check if this is for cartesian
+    ArrayList<Integer> hashindex;   // Indices of the left attributes of the equality conditions
+    ArrayList<Integer> rhashindex;  // Indices of the right attributes of the equality conditions
+    int[] blockHashes;              // Hash value of each tuple of the left block on hashindex
+    int[] blockChain;               // Next tuple of the left block in the same bucket, -1 if none
+    int[] blockBuckets;             // First tuple of the left block in each bucket, -1 if none
+    int match;                      // Next tuple of the left block to check against the right tuple at rcurs
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -47,26 +61,41 @@ public class BlockNestedJoin extends Join {
     private void populateBlock() {
         this.leftblock.clear();
         this.leftTuples.clear();
+        leftRows = 0;
 
-        for (int i = 0; i < numBuff-2; i++) {
-            Batch currentBatch = (Batch) left.next();
-            if (currentBatch == null) {
-                break;
+        if (directBlock != null) {
+            populateDirectBlock();
+        } else {
+            for (int i = 0; i < blockPages; i++) {
+                Batch currentBatch = (Batch) left.next();
+                if (currentBatch == null) {
+                    break;
+                }
+                this.leftblock.add(currentBatch);
+            }
+            // Flatten tuples across pages into left block, the pages themselves can be reused
+            for (Batch b: this.leftblock) {
+                for (int i = 0; i < b.size(); i++) {
+                    this.leftTuples.add(b.get(i));
+                }
+                leftRows += b.size();
+                left.release(b);
             }
-            this.leftblock.add(currentBatch);
         }
-        // Flatten tuples across pages into left block
-        for (Batch b: this.leftblock) {
-            for (int i = 0; i < b.size(); i++) {
-                this.leftTuples.add(b.get(i));
+        if (directBlock != null) {
+            for (Batch b: this.leftblock) {
+                leftRows += b.size();
             }
         }
+        if (!this.leftblock.isEmpty() && !hashindex.isEmpty()) {
+            buildBlockTable();
+        }
         if (!this.leftblock.isEmpty()) {
             /** Whenever a new left page came, we have to start the
             ** scanning of right table
             **/
             try {
-                in = new ObjectInputStream(new FileInputStream(rfname));
+                inner.rewind();
                 eosr = false;
             } catch (IOException io) {
                 System.err.println("NestedJoin:error in reading the file");
@@ -75,6 +104,94 @@ public class BlockNestedJoin extends Join {
         }
     }
     
+    /**
+     * Copies the tuples of the left input into the M-2 off-heap pages, filling
+     * each page before the next one. A left batch that does not fit is kept
+     * for the next block
+     **/
+    private void populateDirectBlock() {
+        for (int p = 0; p < blockPages; p++) {
+            DirectBatch page = directBlock[p];
+            page.clear();
+            while (!page.isFull()) {
+                if (pending == null || pendingCurs == pending.size()) {
+                    left.release(pending);  // Its tuples were all copied
+                    pending = left.next();
+                    pendingCurs = 0;
+                    if (pending == null) break;
+                    continue;
+                }
+                page.add(pending.get(pendingCurs++));
+            }
+            if (page.isEmpty()) break;
+            this.leftblock.add(page);
+        }
+    }
+
+    /**
+     * Builds a hash table of the tuples of the left block on the attributes of the
+     * equality conditions, so that each right tuple is only checked against the left
+     * tuples with the same hash value instead of the whole block
+     **/
+    private void buildBlockTable() {
+        if (blockHashes == null || blockHashes.length < leftRows) {
+            blockHashes = new int[leftRows];
+            blockChain = new int[leftRows];
+        }
+        int numBuckets = Integer.highestOneBit(Math.max(leftRows, 1)) * 2;
+        if (blockBuckets == null || blockBuckets.length != numBuckets) {
+            blockBuckets = new int[numBuckets];
+        }
+        Arrays.fill(blockBuckets, -1);
+        /** Added from the last tuple so that each chain lists the tuples in block order **/
+        for (int i = leftRows - 1; i >= 0; --i) {
+            int hash = Tuple.hashSlots(leftTuple(i), hashindex);
+            int bucket = hash & (numBuckets - 1);
+            blockHashes[i] = hash;
+            blockChain[i] = blockBuckets[bucket];
+            blockBuckets[bucket] = i;
+        }
+    }
+
+    /**
+     * Looks up the right tuples of rightbatch from rcurs in the hash table of the left block,
+     * the tuples found are then checked against all the join conditions.
+     * Returns true when the output page gets full, with rcurs and match where to resume
+     **/
+    private boolean probeBlock() {
+        for (; rcurs < rightbatch.size(); ++rcurs) {
+            Tuple righttuple = rightbatch.get(rcurs);
+            int hash = Tuple.hashSlots(righttuple, rhashindex);
+            if (match == -2) {
+                match = blockBuckets[hash & (blockBuckets.length - 1)];
+            }
+            for (; match != -1; match = blockChain[match]) {
+                if (blockHashes[match] != hash) {
+                    continue;
+                }
+                Tuple lefttuple = leftTuple(match);
+                if (lefttuple.checkJoin(righttuple, leftindex, rightindex, exprindex)) {
+                    outbatch.add(lefttuple.joinWith(righttuple));
+                    if (outbatch.isFull()) {
+                        match = blockChain[match];
+                        return true;
+                    }
+                }
+            }
+            match = -2;
+        }
+        rcurs = 0;
+        return false;
+    }
+
+    /** The i-th tuple of the left block **/
+    private Tuple leftTuple(int i) {
+        if (directBlock != null) {
+            return directBlock[i / rowsPerPage].get(i % rowsPerPage);
+        }
+        return leftTuples.get(i);
+    }
+
     /** select number of tuples per batch **/
     private boolean setBatchSize() {
         int tuplesize = schema.getTupleSize();
@@ -85,6 +202,19 @@ public class BlockNestedJoin extends Join {
                     "Terminating as page size too small for one tuple... At least " + tuplesize + " is required.");
             System.exit(1);
         }
+        /** The right input is read back from its file a page at a time **/
+        rightbatchsize = Math.max(Batch.getPageSize() / right.getSchema().getTupleSize(), 1);
+        /** The pages are allocated once and reused for every block **/
+        pending = null;
+        rowsPerPage = DirectBatch.isEnabled() ? DirectBatch.rowsPerPage(left.getSchema()) : 0;
+        if (rowsPerPage > 0 && (directBlock == null || directBlock.length != numBuff - 2)) {
+            directBlock = new DirectBatch[numBuff - 2];
+            for (int i = 0; i < directBlock.length; ++i) {
+                directBlock[i] = new DirectBatch(left.getSchema());
+            }
+        } else if (rowsPerPage == 0) {
+            directBlock = null;
+        }
         return true;
     }
 
@@ -93,6 +223,8 @@ public class BlockNestedJoin extends Join {
         leftindex = new ArrayList<>();
         rightindex = new ArrayList<>();
         exprindex = new ArrayList<>();
+        hashindex = new ArrayList<>();
+        rhashindex = new ArrayList<>();
         if (conditionList.size() == 0) {
             isCartesian = true;
         } else {
@@ -104,6 +236,10 @@ public class BlockNestedJoin extends Join {
                 leftindex.add(left.getSchema().indexOf(leftattr));
                 rightindex.add(right.getSchema().indexOf(rightattr));
                 exprindex.add(compareType);
+                if (compareType == Condition.EQUAL) {
+                    hashindex.add(left.getSchema().indexOf(leftattr));
+                    rhashindex.add(right.getSchema().indexOf(rightattr));
+                }
             }
         }
     }
@@ -112,6 +248,7 @@ public class BlockNestedJoin extends Join {
     private void resetCursors() {
         this.lcurs = 0;
         this.rcurs = 0;
+        this.match = -2;
         eosl = false;
         /** because right stream is to be repetitively scanned
          ** if it reached end, we have to start new scan
@@ -119,33 +256,28 @@ public class BlockNestedJoin extends Join {
         eosr = true;
     }
 
-    /** Right hand side table is to be materialized
-     ** for the Nested join to perform
+    /** Right hand side table is read once per left block: kept in
+     ** memory if it fits in the buffers of the block, scanned again if
+     ** it is a base table, or else materialized into a file (see InnerInput)
     **/
     private boolean materializeRight() {
-        Batch rightpage;        
-        
-        if (!right.open()) {
-            return false;
-        } else {
-            /** If the right operator is not a base table then
-             ** Materialize the intermediate result from right
-             ** into a file
-             **/
-            filenum++;
-            rfname = "BNJtemp-" + String.valueOf(filenum);
-            try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
-                while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
-                }
-                out.close();
-            } catch (IOException io) {
-                System.out.println("BlockNestedJoin: Error writing to temporary file");
+        filenum++;
+        rfname = "BNJtemp-" + String.valueOf(filenum);
+        inner = new InnerInput(right, rfname, rightbatchsize);
+        try {
+            if (!inner.open(numBuff - 2)) {
                 return false;
             }
-            return right.close();
+        } catch (IOException io) {
+            System.out.println("BlockNestedJoin: Error writing to temporary file");
+            return false;
         }
+        /** The pages kept in memory take the place of the right input buffer and of part of the block **/
+        blockPages = numBuff - 2;
+        if (inner.numMemoryPages() > 0) {
+            blockPages = Math.max(1, numBuff - 1 - inner.numMemoryPages());
+        }
+        return true;
     }
 
     /**
@@ -174,7 +306,7 @@ public class BlockNestedJoin extends Join {
             return null;
         }
 
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr) {
@@ -187,24 +319,31 @@ public class BlockNestedJoin extends Join {
 
             while (eosr == false) {
                 try {
-                    if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                    if (rcurs == 0 && lcurs == 0 && match == -2) {
+                        rightbatch = inner.readBatch(rightbatch);
+                    }
+                    /** With equality conditions, the right tuples are looked up in the left block **/
+                    if (!hashindex.isEmpty()) {
+                        if (probeBlock()) {
+                            return outbatch;
+                        }
+                        continue;
                     }
-                    for (i = lcurs; i < leftTuples.size(); i++) {
+                    for (i = lcurs; i < leftRows; i++) {
+                        Tuple lefttuple = leftTuple(i);
                         for (j = rcurs; j < rightbatch.size(); j++) {
-                            Tuple lefttuple = leftTuples.get(i);
                             Tuple righttuple = rightbatch.get(j);
                             if (isCartesian || lefttuple.checkJoin(righttuple, leftindex, rightindex, exprindex)) {
                                 Tuple outtuple = lefttuple.joinWith(righttuple);
                                 outbatch.add(outtuple);
                                 if (outbatch.isFull()) {
-                                    if (i == leftTuples.size() - 1 && j == rightbatch.size() - 1) {         //case 1: left & right pages complete
+                                    if (i == leftRows - 1 && j == rightbatch.size() - 1) {         //case 1: left & right pages complete
                                         lcurs = 0;
                                         rcurs = 0;
-                                    } else if (i != leftTuples.size() - 1 && j == rightbatch.size() - 1) {  //case 2: only right complete
+                                    } else if (i != leftRows - 1 && j == rightbatch.size() - 1) {  //case 2: only right complete
                                         lcurs = i + 1;
                                         rcurs = 0;
-                                    } else if (i == leftTuples.size() - 1 && j != rightbatch.size() - 1) {  //case 3: only left complete
+                                    } else if (i == leftRows - 1 && j != rightbatch.size() - 1) {  //case 3: only left complete
                                         lcurs = i;
                                         rcurs = j + 1;
                                     } else {                                                                //case 4: both sides not complete
@@ -220,14 +359,11 @@ public class BlockNestedJoin extends Join {
                     lcurs = 0;
                 } catch (EOFException e) {
                     try {
-                        in.close();
+                        inner.close();
                     } catch (IOException io) {
                         System.out.println("BlockNestedJoin: Error in reading temporary file");
                     }
                     eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("BlockNestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("BlockNestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -241,8 +377,9 @@ public class BlockNestedJoin extends Join {
      * Close the operator
      */
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
+        if (inner != null) {
+            inner.delete();
+        }
         return true;
     }
 }
@@ -87,6 +87,9 @@ public class Debug {
 
         if (optype == OpType.JOIN) {
             int exprtype = ((Join) node).getJoinType();
+            if (node instanceof PartitionWiseJoin) {
+                System.out.print("PartitionWise");
+            }
             switch (exprtype) {
                 case JoinType.NESTEDJOIN:
                     System.out.print("NestedJoin(");
@@ -135,14 +138,14 @@ public class Debug {
      * print a tuple
      **/
     public static void PPrint(Tuple t) {
-        for (int i = 0; i < t.data().size(); i++) {
+        for (int i = 0; i < t.size(); i++) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
                 System.out.print((Integer) data + "\t");
             } else if (data instanceof Float) {
                 System.out.print((Float) data + "\t");
             } else {
-                System.out.print(((String) data) + "\t");
+                System.out.print(data + "\t");
             }
         }
         System.out.println();
@@ -4,6 +4,7 @@ import qp.utils.Batch;
 import qp.utils.Schema;
 import qp.utils.Sort;
 import qp.utils.Tuple;
+import qp.utils.TupleInputStream;
 
 import java.io.*;
 
@@ -12,7 +13,7 @@ public class Distinct extends Operator {
     Operator base;
     int batchsize; // Number of tuples per out batch
     Batch outbatch; // Buffer page for output
-    private ObjectInputStream lastSortedFile = null; 
+    private TupleInputStream lastSortedFile = null; 
     private Sort sort;  // Sort utility to do a Distinct Sort
     private boolean endOfSortedFile = false;   // Indicate if there are anymore tuples from stream
     private int numBuff;  // Total number of buffers for Distinct sort
@@ -46,21 +47,19 @@ public class Distinct extends Operator {
         if (endOfSortedFile) {
             return null;
         }
-        Batch outbatch = new Batch(batchsize);
+        Batch outbatch = newBatch(batchsize);
         int added = 0;
 
         for (int i = 0; i < batchsize; i++) {
-            Object inStream;
             try {
-                inStream = lastSortedFile.readObject();
-                if (inStream == null) {
+                Tuple outtuple = lastSortedFile.readTuple();
+                if (outtuple == null) {
                     endOfSortedFile = true;
                     break;
                 }
-                Tuple outtuple = (Tuple) inStream;
                 outbatch.add(outtuple);
                 added += 1;
-            } catch (ClassNotFoundException | IOException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
@@ -0,0 +1,569 @@
+/**
+ * Partitioned (Grace) hash join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.TempFile;
+import qp.utils.Tuple;
+import qp.utils.TupleInputStream;
+import qp.utils.TupleOutputStream;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashJoin joins on equality conditions only. In the partitioning phase,
+ * both inputs are read once and every tuple is written to one of M-1
+ * partition files by the hash of its join attributes, one output buffer
+ * per partition. Matching tuples can then only be in partitions of the same
+ * number. In the probing phase, for each pair of partitions, the left
+ * partition is read into an in-memory hash table of M-2 pages, and the
+ * right partition is read a page at a time and looked up in it.
+ * A left partition that does not fit is partitioned again, together with
+ * its right partition, with another hash function.
+ * In hybrid mode (see setHybrid), the left input is split into about
+ * sqrt(M) partitions, kept in memory while they fit in M-2 pages, less one
+ * output buffer per partition written to a file. The largest partition is written out when they no longer fit.
+ * The right input is then joined with the partitions in memory as it is
+ * read, and only its tuples of the other partitions go to files, so a left
+ * input that fits in memory is joined without any temporary file.
+ * With runtime filters (see BloomFilter.setEnabled), the hash values of the
+ * left input also make a filter pushed to the Scan of the right input.
+ */
+public class HashJoin extends Join {
+
+    static final int MAX_LEVELS = 4;  // Number of times a pair of partitions can be partitioned again
+
+    static boolean hybrid = false;  // Whether the left partitions are kept in memory while they fit
+    static int filenum = 0;         // To get unique filenum for this operation
+    int batchsize;                  // Number of tuples per out batch
+    int leftbatchsize;              // Number of tuples per page of the left input
+    int rightbatchsize;             // Number of tuples per page of the right input
+    ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    ArrayDeque<Partition> partitions = new ArrayDeque<>();  // Pairs of partitions still to be joined
+    String[] leftfiles;             // Files of the left partitions
+    String[] rightfiles;            // Files of the right partitions
+    long[] leftcounts;              // Number of tuples in each left partition
+    long[] rightcounts;             // Number of tuples in each right partition
+    boolean[] spilled;              // Hybrid mode: partitions written to files, null once the right input is read
+    TupleOutputStream[] rightouts;  // Hybrid mode: files of the right tuples of the spilled partitions
+    Partition current;              // Pair of partitions being joined
+
+    Tuple[] table;                  // Tuples of the left partition, in the order they were read
+    int[] hashes;                   // Hash value of each tuple of table
+    int[] chain;                    // Next tuple of table in the same bucket, -1 if none
+    int[] buckets;                  // First tuple of table in each bucket, -1 if none
+    int tableSize;                  // Number of tuples in table
+
+    TupleInputStream in;            // File pointer to the right partition being probed
+    Batch rightbatch;               // Buffer page for the right partition
+    int rcurs;                      // Cursor for right side buffer
+    int match;                      // Next tuple of table to check against the right tuple at rcurs, -1 if none
+    boolean eos;                    // Whether all the partitions have been joined
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+        leftTuples = jn.getLeftTuples();
+    }
+
+    public static void setHybrid(boolean flag) {
+        hybrid = flag;
+    }
+
+    public static boolean isHybrid() {
+        return hybrid;
+    }
+
+    /**
+     * Pair of partition files with the same number, and the number of tuples in each
+     **/
+    static class Partition {
+        String leftfile;
+        String rightfile;
+        long leftcount;
+        long rightcount;
+        int level;           // Number of times these tuples have been partitioned
+
+        void delete() {
+            new File(leftfile).delete();
+            new File(rightfile).delete();
+        }
+    }
+
+    /**
+     * Finds the index of the join attributes and
+     * * partitions both inputs into M-1 pairs of files
+     **/
+    public boolean open() {
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        if (batchsize == 0) {
+            System.out.println(
+                    "Terminating as page size too small for one tuple... At least " + tuplesize + " is required.");
+            System.exit(1);
+        }
+        if (numBuff < 3) {
+            System.out.println("Number of buffers too little for HashJoin");
+            System.exit(1);
+        }
+        leftbatchsize = Math.max(Batch.getPageSize() / left.getSchema().getTupleSize(), 1);
+        rightbatchsize = Math.max(Batch.getPageSize() / right.getSchema().getTupleSize(), 1);
+
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        for (Condition con : conditionList) {
+            if (con.getExprType() != Condition.EQUAL) {
+                System.out.println("HashJoin: only equality join conditions are supported");
+                System.exit(1);
+            }
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+        }
+
+        /** The join may be opened again, e.g. once per partition of a partition-wise join **/
+        partitions.clear();
+        current = null;
+        spilled = null;
+        rightbatch = null;
+        rcurs = 0;
+        match = -2;
+        in = null;
+        eos = false;
+
+        if (!left.open() || !right.open()) {
+            return false;
+        }
+        filenum++;
+        String prefix = "HJtemp-" + filenum;
+        leftfiles = new String[numBuff - 1];
+        rightfiles = new String[numBuff - 1];
+        for (int i = 0; i < numBuff - 1; ++i) {
+            leftfiles[i] = prefix + "-l" + i;
+            rightfiles[i] = prefix + "-r" + i;
+        }
+        if (hybrid) {
+            /** The right input is partitioned by next(), as it is joined **/
+            return partitionResident() && left.close();
+        }
+        BloomFilter keys = runtimeFilter();
+        leftcounts = partition(left, leftindex, leftfiles, 0, keys);
+        pushRuntimeFilter(keys, rightindex);
+        rightcounts = partition(right, rightindex, rightfiles, 0, null);
+        if (leftcounts == null || rightcounts == null) {
+            return false;
+        }
+        addPartitions(leftfiles, rightfiles, leftcounts, rightcounts, 0);
+        return left.close() && right.close();
+    }
+
+    /**
+     * Joins the pairs of partitions one after the other
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eos) {
+            return null;
+        }
+        Batch outbatch = newBatch(batchsize);
+        try {
+            /** Hybrid mode: join the right input with the partitions kept in memory first **/
+            while (spilled != null) {
+                if (rightbatch == null || rcurs == rightbatch.size()) {
+                    right.release(rightbatch);
+                    rightbatch = right.next();
+                    rcurs = 0;
+                    match = -2;
+                    if (rightbatch == null) {
+                        endOfRightInput();
+                        break;
+                    }
+                }
+                if (probe(outbatch)) {
+                    return outbatch;
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error writing to temporary file");
+            System.exit(1);
+        }
+        while (!outbatch.isFull()) {
+            if (current == null && !nextPartition()) {
+                eos = true;
+                return outbatch;
+            }
+            try {
+                if (rightbatch == null || rcurs == rightbatch.size()) {
+                    rightbatch = in.readBatch(rightbatch, rightbatchsize);
+                    rcurs = 0;
+                    match = -2;
+                }
+                if (probe(outbatch)) {
+                    return outbatch;
+                }
+            } catch (EOFException e) {
+                closePartition();
+            } catch (IOException io) {
+                System.out.println("HashJoin: Error in reading temporary file");
+                System.exit(1);
+            }
+        }
+        return outbatch;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (spilled != null) {
+            endOfRightInput();
+        }
+        if (current != null) {
+            closePartition();
+        }
+        for (Partition p : partitions) {
+            p.delete();
+        }
+        partitions.clear();
+        return true;
+    }
+
+    /**
+     * Partition of a hash value at the given level. The bits are mixed with
+     * a different seed at each level, so tuples that were in the same partition
+     * are spread again, and so are the tuples of a table partitioned on the
+     * same attribute by the remainder of its hash (see Partitioning)
+     **/
+    static int partitionOf(int hash, int level, int numPartitions) {
+        int h = hash ^ (0x9e3779b9 * (level + 1));
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, numPartitions);
+    }
+
+    /**
+     * Looks up the right tuples of rightbatch from rcurs in the hash table and adds the
+     * joined tuples to the output page. In hybrid mode, a right tuple of a partition written
+     * to a file is written to the right file of that partition instead.
+     * Returns true when the output page gets full, with rcurs and match where to resume
+     **/
+    private boolean probe(Batch outbatch) throws IOException {
+        for (; rcurs < rightbatch.size(); ++rcurs) {
+            Tuple righttuple = rightbatch.get(rcurs);
+            int hash = Tuple.hashSlots(righttuple, rightindex);
+            if (match == -2) {
+                if (spilled != null) {
+                    int p = partitionOf(hash, 0, spilled.length);
+                    if (spilled[p]) {
+                        if (leftcounts[p] > 0) {
+                            rightouts[p].writeTuple(righttuple);
+                            rightcounts[p]++;
+                        }
+                        continue;
+                    }
+                }
+                match = buckets[hash & (buckets.length - 1)];
+            }
+            for (; match != -1; match = chain[match]) {
+                Tuple lefttuple = table[match];
+                if (hashes[match] == hash && lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
+                    outbatch.add(lefttuple.joinWith(righttuple));
+                    if (outbatch.isFull()) {
+                        match = chain[match];
+                        return true;
+                    }
+                }
+            }
+            match = -2;
+        }
+        return false;
+    }
+
+    /**
+     * Hybrid mode: partitions the left input, keeping the partitions in memory while
+     * they fit in M-2 pages less one page per partition written to a file, and writing
+     * out the largest one when they do not. Then builds the hash table of the partitions
+     * kept in memory and opens the right files of the others.
+     * There are only about sqrt(M) partitions, as each one written to a file takes a page
+     * away from those kept in memory: a left input a little larger than the memory then
+     * keeps most of its partitions in memory, and a partition written to a file that is
+     * still too large is partitioned again before it is joined
+     **/
+    private boolean partitionResident() {
+        int numPartitions = Math.max(2, (int) Math.sqrt(numBuff - 1));
+        long pages = numBuff - 2;
+        spilled = new boolean[numPartitions];
+        leftcounts = new long[numPartitions];
+        rightcounts = new long[numPartitions];
+        rightouts = new TupleOutputStream[numPartitions];
+        TupleOutputStream[] leftouts = new TupleOutputStream[numPartitions];
+        ArrayList<ArrayList<Tuple>> resident = new ArrayList<>();
+        for (int i = 0; i < numPartitions; ++i) {
+            resident.add(new ArrayList<>());
+        }
+        long numResident = 0;
+        int numSpilled = 0;
+        BloomFilter keys = runtimeFilter();
+        try {
+            Batch inbatch;
+            while ((inbatch = left.next()) != null) {
+                for (int i = 0; i < inbatch.size(); ++i) {
+                    Tuple tuple = inbatch.get(i);
+                    int hash = Tuple.hashSlots(tuple, leftindex);
+                    if (keys != null) {
+                        keys.add(hash);
+                    }
+                    int p = partitionOf(hash, 0, numPartitions);
+                    leftcounts[p]++;
+                    if (spilled[p]) {
+                        leftouts[p].writeTuple(tuple);
+                        continue;
+                    }
+                    resident.get(p).add(tuple);
+                    numResident++;
+                    while (numResident > 0 && numResident > (pages - numSpilled) * leftbatchsize) {
+                        int largest = 0;
+                        for (int j = 1; j < numPartitions; ++j) {
+                            if (resident.get(j).size() > resident.get(largest).size()) {
+                                largest = j;
+                            }
+                        }
+                        leftouts[largest] = TempFile.openOutput(leftfiles[largest], left.getSchema());
+                        for (Tuple t : resident.get(largest)) {
+                            leftouts[largest].writeTuple(t);
+                        }
+                        numResident -= resident.get(largest).size();
+                        resident.get(largest).clear();
+                        spilled[largest] = true;
+                        numSpilled++;
+                    }
+                }
+                left.release(inbatch);
+            }
+            for (int i = 0; i < numPartitions; ++i) {
+                if (spilled[i]) {
+                    leftouts[i].close();
+                    rightouts[i] = TempFile.openOutput(rightfiles[i], right.getSchema());
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error writing to temporary file");
+            return false;
+        }
+        pushRuntimeFilter(keys, rightindex);
+        clearTable((int) numResident);
+        for (ArrayList<Tuple> tuples : resident) {
+            for (Tuple tuple : tuples) {
+                addToTable(tuple, Tuple.hashSlots(tuple, leftindex));
+            }
+        }
+        return true;
+    }
+
+    // Helper method to close the right files of the hybrid mode once the right input is read,
+    // and queue the partitions written to files to be joined like those of the Grace join
+    private void endOfRightInput() {
+        for (int i = 0; i < spilled.length; ++i) {
+            if (!spilled[i]) {
+                continue;
+            }
+            try {
+                rightouts[i].close();
+            } catch (IOException io) {
+                System.out.println("HashJoin: Error writing to temporary file");
+                System.exit(1);
+            }
+            addPartition(leftfiles[i], rightfiles[i], leftcounts[i], rightcounts[i], 0);
+        }
+        spilled = null;
+        rightouts = null;
+        rightbatch = null;
+        Arrays.fill(table, 0, tableSize, null);
+        right.close();
+    }
+
+    // Helper method to write every tuple of the input to the file of its partition, and its
+    // hash value to keys if not null; returns the number of tuples in each file or null on error
+    private long[] partition(Operator input, ArrayList<Integer> index, String[] files, int level, BloomFilter keys) {
+        TupleOutputStream[] outs = new TupleOutputStream[files.length];
+        long[] counts = new long[files.length];
+        try {
+            for (int i = 0; i < files.length; ++i) {
+                outs[i] = TempFile.openOutput(files[i], input.getSchema());
+            }
+            Batch inbatch;
+            while ((inbatch = input.next()) != null) {
+                for (int i = 0; i < inbatch.size(); ++i) {
+                    Tuple tuple = inbatch.get(i);
+                    int hash = Tuple.hashSlots(tuple, index);
+                    if (keys != null) {
+                        keys.add(hash);
+                    }
+                    int p = partitionOf(hash, level, files.length);
+                    outs[p].writeTuple(tuple);
+                    counts[p]++;
+                }
+                input.release(inbatch);
+            }
+            for (TupleOutputStream out : outs) {
+                out.close();
+            }
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error writing to temporary file");
+            return null;
+        }
+        return counts;
+    }
+
+    // Helper method to queue the pairs of partitions that can have matching tuples
+    private void addPartitions(String[] leftfiles, String[] rightfiles, long[] leftcounts, long[] rightcounts, int level) {
+        for (int i = 0; i < leftfiles.length; ++i) {
+            addPartition(leftfiles[i], rightfiles[i], leftcounts[i], rightcounts[i], level);
+        }
+    }
+
+    // Helper method to queue one pair of partitions, or delete its files if it has no matching tuples
+    private void addPartition(String leftfile, String rightfile, long leftcount, long rightcount, int level) {
+        Partition p = new Partition();
+        p.leftfile = leftfile;
+        p.rightfile = rightfile;
+        p.leftcount = leftcount;
+        p.rightcount = rightcount;
+        p.level = level;
+        if (p.leftcount == 0 || p.rightcount == 0) {
+            p.delete();
+        } else {
+            partitions.add(p);
+        }
+    }
+
+    /**
+     * Builds the hash table of the next pair of partitions and opens its right file,
+     * partitioning the pair again first if the left partition does not fit in M-2 pages.
+     * Returns false if there are no more pairs
+     **/
+    private boolean nextPartition() {
+        long capacity = (long) (numBuff - 2) * leftbatchsize;
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.poll();
+            if (p.leftcount > capacity && p.level + 1 < MAX_LEVELS) {
+                repartition(p);
+                continue;
+            }
+            try {
+                buildTable(p);
+                in = TempFile.openInput(p.rightfile, right.getSchema());
+            } catch (IOException io) {
+                System.out.println("HashJoin: Error in reading temporary file");
+                System.exit(1);
+            }
+            current = p;
+            rightbatch = null;
+            return true;
+        }
+        return false;
+    }
+
+    // Helper method to partition both files of a pair again, at the next level
+    private void repartition(Partition p) {
+        int level = p.level + 1;
+        String[] leftfiles = new String[numBuff - 1];
+        String[] rightfiles = new String[numBuff - 1];
+        for (int i = 0; i < numBuff - 1; ++i) {
+            leftfiles[i] = p.leftfile + "-" + i;
+            rightfiles[i] = p.rightfile + "-" + i;
+        }
+        long[] leftcounts = repartitionFile(p.leftfile, left, leftindex, leftfiles, level);
+        long[] rightcounts = repartitionFile(p.rightfile, right, rightindex, rightfiles, level);
+        p.delete();
+        addPartitions(leftfiles, rightfiles, leftcounts, rightcounts, level);
+    }
+
+    // Helper method to partition the tuples of one partition file
+    private long[] repartitionFile(String file, Operator input, ArrayList<Integer> index, String[] files, int level) {
+        TupleOutputStream[] outs = new TupleOutputStream[files.length];
+        long[] counts = new long[files.length];
+        try {
+            TupleInputStream tuples = TempFile.openInput(file, input.getSchema());
+            for (int i = 0; i < files.length; ++i) {
+                outs[i] = TempFile.openOutput(files[i], input.getSchema());
+            }
+            Tuple tuple;
+            while ((tuple = tuples.readTuple()) != null) {
+                int p = partitionOf(Tuple.hashSlots(tuple, index), level, files.length);
+                outs[p].writeTuple(tuple);
+                counts[p]++;
+            }
+            tuples.close();
+            for (TupleOutputStream out : outs) {
+                out.close();
+            }
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error writing to temporary file");
+            System.exit(1);
+        }
+        return counts;
+    }
+
+    // Helper method to read the left partition into the hash table
+    private void buildTable(Partition p) throws IOException {
+        clearTable((int) p.leftcount);
+        TupleInputStream tuples = TempFile.openInput(p.leftfile, left.getSchema());
+        Tuple tuple;
+        while ((tuple = tuples.readTuple()) != null) {
+            addToTable(tuple, Tuple.hashSlots(tuple, leftindex));
+        }
+        tuples.close();
+    }
+
+    // Helper method to empty the hash table, with room for n tuples
+    private void clearTable(int n) {
+        if (table == null || table.length < n) {
+            table = new Tuple[n];
+            hashes = new int[n];
+            chain = new int[n];
+        }
+        int numBuckets = Integer.highestOneBit(Math.max(n, 1)) * 2;
+        if (buckets == null || buckets.length != numBuckets) {
+            buckets = new int[numBuckets];
+        }
+        Arrays.fill(buckets, -1);
+        tableSize = 0;
+    }
+
+    // Helper method to add a tuple to the hash table
+    private void addToTable(Tuple tuple, int hash) {
+        int bucket = hash & (buckets.length - 1);
+        table[tableSize] = tuple;
+        hashes[tableSize] = hash;
+        chain[tableSize] = buckets[bucket];
+        buckets[bucket] = tableSize;
+        tableSize++;
+    }
+
+    // Helper method to close the files of the pair of partitions being joined
+    private void closePartition() {
+        try {
+            in.close();
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error in reading temporary file");
+        }
+        Arrays.fill(table, 0, tableSize, null);
+        current.delete();
+        current = null;
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Right (inner) input of the nested loop joins, read once per pass
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.TempFile;
+import qp.utils.TupleInputStream;
+import qp.utils.TupleOutputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * NestedJoin and BlockNestedJoin read their right input once for every
+ * page or block of the left input. InnerInput gives them those passes in
+ * the cheapest way available, decided when the join is opened:
+ * - MEMORY: the right input fits in the pages the join can spare, its pages
+ * are kept and every pass goes over them without any I/O.
+ * - RESCAN: the right input is a Scan, possibly below some selections, so
+ * every pass opens it again and reads the table instead of a copy of it.
+ * - FILE: otherwise the right input is written to a temporary file once and
+ * every pass reads the file back, as the joins always did.
+ * A pass is read like a TupleInputStream: readBatch throws EOFException at
+ * its end.
+ */
+public class InnerInput {
+
+    static final int MEMORY = 0;
+    static final int RESCAN = 1;
+    static final int FILE = 2;
+
+    Operator right;                 // Right input of the join
+    String filename;                // File the right input is written to in FILE mode
+    int batchsize;                  // Number of tuples per page of the right input
+    int mode;                       // MEMORY, RESCAN or FILE
+    ArrayList<Batch> pages = new ArrayList<>();  // Pages of the right input in MEMORY mode
+    int nextPage;                   // Next page of the pass in MEMORY mode
+    TupleInputStream in;            // File of the pass in FILE mode
+    Batch current;                  // Page of the right input returned last in RESCAN mode
+    boolean reading;                // Whether a pass is being read
+
+    public InnerInput(Operator right, String filename, int batchsize) {
+        this.right = right;
+        this.filename = filename;
+        this.batchsize = batchsize;
+    }
+
+    /**
+     * Reads the right input and decides how the passes are made: in memory if it
+     * fits in memoryPages pages, else by scanning it again if it can be, else
+     * from a temporary file
+     **/
+    public boolean open(int memoryPages) throws IOException {
+        pages.clear();
+        reading = false;
+        if (!right.open()) {
+            return false;
+        }
+        Batch page = new Batch(batchsize);
+        Batch inbatch;
+        while ((inbatch = right.next()) != null) {
+            for (int i = 0; i < inbatch.size(); ++i) {
+                if (page.isFull()) {
+                    pages.add(page);
+                    page = new Batch(batchsize);
+                }
+                page.add(inbatch.get(i));
+            }
+            right.release(inbatch);
+            if (pages.size() >= memoryPages) {
+                break;
+            }
+        }
+        if (inbatch == null) {
+            if (!page.isEmpty()) {
+                pages.add(page);
+            }
+            if (pages.size() <= memoryPages) {
+                mode = MEMORY;
+                return right.close();
+            }
+        }
+        if (PartitionWiseJoin.baseScan(right) != null) {
+            mode = RESCAN;
+            pages.clear();
+            return right.close();
+        }
+        mode = FILE;
+        TupleOutputStream out = TempFile.openOutput(filename, right.getSchema());
+        for (Batch p : pages) {
+            out.writeBatch(p);
+        }
+        if (inbatch != null) {
+            out.writeBatch(page);
+            while ((inbatch = right.next()) != null) {
+                out.writeBatch(inbatch);
+                right.release(inbatch);
+            }
+        }
+        out.close();
+        pages.clear();
+        return right.close();
+    }
+
+    /** Number of pages held in memory, to be taken from the buffers of the join **/
+    public int numMemoryPages() {
+        return mode == MEMORY ? pages.size() : 0;
+    }
+
+    /** Starts a new pass over the right input **/
+    public void rewind() throws IOException {
+        if (reading) {
+            endPass();
+        }
+        if (mode == MEMORY) {
+            nextPage = 0;
+        } else if (mode == RESCAN) {
+            if (!right.open()) {
+                throw new IOException("InnerInput: cannot open the right input again");
+            }
+        } else {
+            in = TempFile.openInput(filename, right.getSchema());
+        }
+        reading = true;
+    }
+
+    /**
+     * Next page of the pass. The previous page of the pass is given back, and
+     * may be filled again. Throws EOFException at the end of the pass
+     **/
+    public Batch readBatch(Batch previous) throws IOException {
+        if (mode == MEMORY) {
+            if (nextPage == pages.size()) {
+                throw new EOFException();
+            }
+            return pages.get(nextPage++);
+        } else if (mode == RESCAN) {
+            right.release(current);
+            current = null;
+            Batch page = right.next();
+            while (page != null && page.isEmpty()) {
+                right.release(page);
+                page = right.next();
+            }
+            if (page == null) {
+                throw new EOFException();
+            }
+            current = page;
+            return page;
+        }
+        return in.readBatch(previous, batchsize);
+    }
+
+    /** Ends the pass being read **/
+    public void close() throws IOException {
+        if (reading) {
+            endPass();
+        }
+    }
+
+    /** Ends the passes and deletes the temporary file, if any **/
+    public void delete() {
+        try {
+            close();
+        } catch (IOException io) {
+            System.out.println("InnerInput: Error in closing the right input");
+        }
+        pages.clear();
+        if (mode == FILE) {
+            new File(filename).delete();
+        }
+    }
+
+    // Helper method to close the stream or the operator of the pass
+    private void endPass() throws IOException {
+        reading = false;
+        if (mode == RESCAN) {
+            right.close();
+        } else if (mode == FILE) {
+            in.close();
+        }
+    }
+}
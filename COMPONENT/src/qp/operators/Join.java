@@ -4,6 +4,7 @@
 
 package qp.operators;
 
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
@@ -18,6 +19,7 @@ public class Join extends Operator {
     int jointype;                        // JoinType.NestedJoin/SortMerge/HashJoin
     int nodeIndex;                       // Each join node is given a number
     boolean isCartesian;                 // Cartesian Join
+    long leftTuples;                     // Number of tuples of the left input (of each partition) estimated by PlanCost
 
     public Join(Operator left, Operator right, int type) {
         super(type);
@@ -82,6 +84,14 @@ public class Join extends Operator {
         this.right = right;
     }
 
+    public long getLeftTuples() {
+        return leftTuples;
+    }
+
+    public void setLeftTuples(long num) {
+        this.leftTuples = num;
+    }
+
     public boolean getIsCartesian() {
         return this.isCartesian;
     }
@@ -110,6 +120,35 @@ public class Join extends Operator {
         conditionList.add(condition);
     }
 
+    /**
+     * Empty filter for the hash values of the join attributes of the left input,
+     * sized from the estimated number of left tuples, when runtime filters are
+     * enabled (see BloomFilter.setEnabled) and the right input is read by a
+     * Scan the filter can be pushed to; null otherwise
+     **/
+    BloomFilter runtimeFilter() {
+        if (!BloomFilter.isEnabled() || PartitionWiseJoin.baseScan(right) == null) {
+            return null;
+        }
+        return new BloomFilter(leftTuples);
+    }
+
+    /**
+     * Pushes the filter filled from the left input to the Scan of the right
+     * input, whose join attributes are at the index, unless it would let most
+     * rows through. Must be called before the right input is read
+     **/
+    void pushRuntimeFilter(BloomFilter filter, ArrayList<Integer> index) {
+        if (filter != null) {
+            Scan scan = PartitionWiseJoin.baseScan(right);
+            if (filter.isSelective()) {
+                scan.setRuntimeFilter(filter, index);
+            } else {
+                scan.setRuntimeFilter(null, null);
+            }
+        }
+    }
+
     public Object clone() {
         Operator newleft = (Operator) left.clone();
         Operator newright = (Operator) right.clone();
@@ -123,6 +162,7 @@ public class Join extends Operator {
         jn.setJoinType(jointype);
         jn.setNodeIndex(nodeIndex);
         jn.setNumBuff(numBuff);
+        jn.setLeftTuples(leftTuples);
         return jn;
     }
 
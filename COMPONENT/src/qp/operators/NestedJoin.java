@@ -23,7 +23,8 @@ public class NestedJoin extends Join {
     Batch outbatch;                 // Buffer page for output
     Batch leftbatch;                // Buffer page for left input stream
     Batch rightbatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    InnerInput inner;               // Right input, read once per left page
+    int rightbatchsize;             // Number of tuples per right batch read back from the file
     Boolean isCartesian;              // Check if this is for cartesian 
 
     int lcurs;                      // Cursor for left side buffer
@@ -52,6 +53,8 @@ public class NestedJoin extends Join {
                     "Terminating as page size too small for one tuple... At least " + tuplesize + " is required.");
             System.exit(1);
         }
+        /** The right input is read back from its file a page at a time **/
+        rightbatchsize = Math.max(Batch.getPageSize() / right.getSchema().getTupleSize(), 1);
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -72,8 +75,6 @@ public class NestedJoin extends Join {
             }
         }
 
-        Batch rightpage;
-
         /** initialize the cursors of input buffers **/
         lcurs = 0;
         rcurs = 0;
@@ -83,30 +84,19 @@ public class NestedJoin extends Join {
          **/
         eosr = true;
 
-        /** Right hand side table is to be materialized
-         ** for the Nested join to perform
+        /** Right hand side table is read once per left page: kept in
+         ** memory if it fits in the buffers left, scanned again if it is
+         ** a base table, or else materialized into a file (see InnerInput)
          **/
-        if (!right.open()) {
-            return false;
-        } else {
-            /** If the right operator is not a base table then
-             ** Materialize the intermediate result from right
-             ** into a file
-             **/
-            filenum++;
-            rfname = "NJtemp-" + String.valueOf(filenum);
-            try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
-                while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
-                }
-                out.close();
-            } catch (IOException io) {
-                System.out.println("NestedJoin: Error writing to temporary file");
-                return false;
-            }
-            if (!right.close())
+        filenum++;
+        rfname = "NJtemp-" + String.valueOf(filenum);
+        inner = new InnerInput(right, rfname, rightbatchsize);
+        try {
+            if (!inner.open(numBuff - 2))
                 return false;
+        } catch (IOException io) {
+            System.out.println("NestedJoin: Error writing to temporary file");
+            return false;
         }
         if (left.open())
             return true;
@@ -123,10 +113,11 @@ public class NestedJoin extends Join {
         if (eosl) {
             return null;
         }
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr == true) {
                 /** new left page is to be fetched**/
+                left.release(leftbatch);  // Joined with the whole right table
                 leftbatch = (Batch) left.next();
                 if (leftbatch == null) {
                     eosl = true;
@@ -136,7 +127,7 @@ public class NestedJoin extends Join {
                  ** scanning of right table
                  **/
                 try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                    inner.rewind();
                     eosr = false;
                 } catch (IOException io) {
                     System.err.println("NestedJoin:error in reading the file");
@@ -147,7 +138,7 @@ public class NestedJoin extends Join {
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = inner.readBatch(rightbatch);
                     }
                     for (i = lcurs; i < leftbatch.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
@@ -179,14 +170,11 @@ public class NestedJoin extends Join {
                     lcurs = 0;
                 } catch (EOFException e) {
                     try {
-                        in.close();
+                        inner.close();
                     } catch (IOException io) {
                         System.out.println("NestedJoin: Error in reading temporary file");
                     }
                     eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -200,8 +188,9 @@ public class NestedJoin extends Join {
      * Close the operator
      */
     public boolean close() {
-        File f = new File(rfname);
-        f.delete();
+        if (inner != null) {
+            inner.delete();
+        }
         return true;
     }
 
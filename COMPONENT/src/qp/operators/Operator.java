@@ -6,10 +6,15 @@ package qp.operators;
 import qp.utils.Batch;
 import qp.utils.Schema;
 
+import java.util.ArrayDeque;
+
 public class Operator {
 
+    static final int MAX_FREE_BATCHES = 4;  // Number of released pages kept for reuse per operator
+
     int optype;     // Whether it is OpType.SELECT/ Optype.PROJECT/OpType.JOIN
     Schema schema;  // Schema of the result at this operator
+    final ArrayDeque<Batch> freeBatches = new ArrayDeque<>();  // Pages released by the consumer
 
     public Operator(int type) {
         this.optype = type;
@@ -47,6 +52,34 @@ public class Operator {
         return true;
     }
 
+    /**
+     * Gives back a page returned by next() once the consumer is done with it,
+     * so that a later call of next() can fill it again instead of allocating
+     * a new one. The consumer must not use the page afterwards; the tuples
+     * it held are not reused and may still be kept. Only plain Batch pages
+     * are kept, e.g. a ColumnBatch is left to the garbage collector
+     **/
+    public void release(Batch batch) {
+        if (batch == null || batch.getClass() != Batch.class) return;
+        synchronized (freeBatches) {
+            if (freeBatches.size() < MAX_FREE_BATCHES) {
+                batch.clear();
+                freeBatches.push(batch);
+            }
+        }
+    }
+
+    /** Empty page for the output of next(), a released one if any has the capacity **/
+    Batch newBatch(int capacity) {
+        synchronized (freeBatches) {
+            Batch batch = freeBatches.poll();
+            if (batch != null && batch.capacity() == capacity) {
+                return batch;
+            }
+        }
+        return new Batch(capacity);
+    }
+
     public Object clone() {
         return new Operator(optype);
     }
@@ -4,6 +4,7 @@ import qp.utils.Batch;
 import qp.utils.Schema;
 import qp.utils.Sort;
 import qp.utils.Tuple;
+import qp.utils.TupleInputStream;
 
 import java.io.*;
 import java.util.*;
@@ -19,7 +20,7 @@ public class OrderBy extends Operator {
     private int numBuff;
 
     private int batchsize;
-    private ObjectInputStream lastSortedFile = null;
+    private TupleInputStream lastSortedFile = null;
     private boolean endOfSortedFile = false;
     private Sort sort;
 
@@ -71,21 +72,19 @@ public class OrderBy extends Operator {
         if (endOfSortedFile) {
             return null;
         }
-        Batch outbatch = new Batch(batchsize);
+        Batch outbatch = newBatch(batchsize);
         int added = 0;
 
         for (int i = 0; i < batchsize; i++) {
-            Object inStream;
             try {
-                inStream = lastSortedFile.readObject();
-                if (inStream == null) {
+                Tuple outtuple = lastSortedFile.readTuple();
+                if (outtuple == null) {
                     endOfSortedFile = true;
                     break;
                 }
-                Tuple outtuple = (Tuple) inStream;
                 outbatch.add(outtuple);
                 added += 1;
-            } catch (ClassNotFoundException | IOException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
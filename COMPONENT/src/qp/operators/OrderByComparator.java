@@ -6,15 +6,22 @@ import qp.utils.Schema;
 import qp.utils.Tuple;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
 /**
- * Comparator which sorts tuples according to the OrderTypes
+ * Comparator which sorts tuples according to the OrderTypes.
+ * The index of every attribute is looked up once, and keyOf encodes the
+ * values a tuple is sorted on into a normalized key: the keys of two tuples
+ * compare byte by byte, unsigned, in the same order as compare does, so
+ * Sort encodes each tuple once and then only compares bytes.
  */
 public class OrderByComparator implements Comparator<Tuple> {
     private Schema schema;
     private List<OrderType> orderTypeList;
+    private int[] indexes;         // Index of the attribute of each OrderType
+    private boolean[] descending;  // Whether each OrderType is DESC
 
     public OrderByComparator(Schema schema) {
         this.schema = schema;
@@ -24,25 +31,113 @@ public class OrderByComparator implements Comparator<Tuple> {
             OrderType ot = new OrderType(attrList.get(i), Order.ASC);
             orderTypeList.add(ot);
         }
+        setIndexes();
     }
 
     public OrderByComparator(Schema schema, List<OrderType> orderTypeList) {
         this.schema = schema;
         this.orderTypeList = orderTypeList;
+        setIndexes();
+    }
+
+    // Helper method to look up the attributes once
+    private void setIndexes() {
+        indexes = new int[orderTypeList.size()];
+        descending = new boolean[orderTypeList.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            OrderType toSortBy = orderTypeList.get(i);
+            indexes[i] = schema.indexOf(toSortBy.getAttribute());
+            descending[i] = toSortBy.getOrder() == OrderType.Order.DESC;
+        }
     }
 
     @Override
     public int compare(Tuple tuple1, Tuple tuple2) {
-        for (int i = 0; i < orderTypeList.size(); i++) {
-            OrderType toSortBy = orderTypeList.get(i);
-            Attribute attr = toSortBy.getAttribute();
-            int attrIndex = schema.indexOf(attr);
-            int comparison = Tuple.compareTuples(tuple1, tuple2, attrIndex);
+        for (int i = 0; i < indexes.length; i++) {
+            int comparison = Tuple.compareTuples(tuple1, tuple2, indexes[i]);
             if (comparison != 0) {
-                int mult = toSortBy.getOrder() == OrderType.Order.DESC ? -1 : 1;
-                return mult * comparison;
+                return descending[i] ? -comparison : comparison;
             }
         }
         return 0;
     }
-}
\ No newline at end of file
+
+    /**
+     * Normalized sort key of the tuple. Each attribute is encoded as a byte
+     * 0 for null or 1 followed by:
+     *  INTEGER: the 4 bytes big endian with the sign bit flipped
+     *  REAL: the 4 bytes of its bits, all flipped if negative and only the
+     *        sign bit otherwise (the order of Float.compare)
+     *  STRING: its UTF-16 chars big endian (the order of String.compareTo),
+     *        each 0 byte written as 0 255, ended by 0 0
+     * The bytes of a DESC attribute are inverted. No encoded attribute is a
+     * prefix of another, so the order of the first differing attribute decides
+     **/
+    public byte[] keyOf(Tuple tuple) {
+        KeyBuffer key = new KeyBuffer();
+        for (int i = 0; i < indexes.length; i++) {
+            int start = key.length;
+            int index = indexes[i];
+            byte kind = tuple.kindAt(index);
+            if (kind == Tuple.NULL_SLOT) {
+                key.put(0);
+            } else if (kind == Tuple.INT_SLOT) {
+                key.put(1);
+                key.putInt(tuple.getInt(index) ^ Integer.MIN_VALUE);
+            } else if (kind == Tuple.REAL_SLOT) {
+                int bits = Float.floatToIntBits(tuple.getFloat(index));
+                key.put(1);
+                key.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+            } else {
+                String value = tuple.dataAt(index).toString();
+                key.put(1);
+                for (int c = 0; c < value.length(); c++) {
+                    char ch = value.charAt(c);
+                    key.putEscaped(ch >>> 8);
+                    key.putEscaped(ch & 0xFF);
+                }
+                key.put(0);
+                key.put(0);
+            }
+            if (descending[i]) {
+                key.invert(start);
+            }
+        }
+        return key.toArray();
+    }
+
+    /** Growable array of the bytes of a key **/
+    private static class KeyBuffer {
+        byte[] bytes = new byte[32];
+        int length = 0;
+
+        void put(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        void putInt(int v) {
+            put(v >>> 24);
+            put(v >>> 16);
+            put(v >>> 8);
+            put(v);
+        }
+
+        void putEscaped(int b) {
+            put(b);
+            if (b == 0) put(255);
+        }
+
+        void invert(int from) {
+            for (int i = from; i < length; i++) {
+                bytes[i] = (byte) ~bytes[i];
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
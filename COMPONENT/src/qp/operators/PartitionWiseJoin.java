@@ -0,0 +1,140 @@
+/**
+ * Join of two partitioned tables, one pair of partitions at a time
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Partitioning;
+
+import java.util.BitSet;
+
+/**
+ * When both inputs scan tables partitioned alike on the attributes of an
+ * equality join condition, matching rows can only be in partitions of the
+ * same number. The join is then done as one smaller join per partition:
+ * the scans below are restricted to partition i, the join operator is opened
+ * and run to the end, then the same is done for the next partition. Each of
+ * these joins gets all the buffers of the join, so a block nested join may
+ * need a single pass over the right partition.
+ */
+public class PartitionWiseJoin extends Join {
+
+    Join join;             // Join operator run for each partition
+    Scan leftScan;         // Scan below the left input
+    Scan rightScan;        // Scan below the right input
+    BitSet leftParts;      // Partitions read by the left scan outside this join
+    BitSet rightParts;     // Partitions read by the right scan outside this join
+    BitSet parts;          // Partitions read by both scans
+    int current;           // Partition being joined
+    boolean eos;           // Whether all the partitions have been joined
+
+    public PartitionWiseJoin(Join join) {
+        super(join.getLeft(), join.getRight(), join.getConditionList(), join.getOpType());
+        this.join = join;
+        schema = join.getSchema();
+        jointype = join.getJoinType();
+        numBuff = join.getNumBuff();
+        nodeIndex = join.getNodeIndex();
+    }
+
+    public Join getJoin() {
+        return join;
+    }
+
+    /**
+     * Number of partitions the join can be split into, or 0 if it cannot:
+     * each input must be a scan of a partitioned table, possibly below some
+     * selections, and one of the conditions must be an equality between
+     * the partitioning attributes of two tables partitioned alike
+     **/
+    public static int numPartitions(Join node) {
+        Scan left = baseScan(node.getLeft());
+        Scan right = baseScan(node.getRight());
+        if (left == null || right == null) return 0;
+        Partitioning lp = left.getSchema().getPartitioning();
+        Partitioning rp = right.getSchema().getPartitioning();
+        if (lp == null || !lp.isCompatible(rp)) return 0;
+        for (Condition con : node.getConditionList()) {
+            if (con.getExprType() != Condition.EQUAL || !(con.getRhs() instanceof Attribute)) continue;
+            Attribute lhs = con.getLhs();
+            Attribute rhs = (Attribute) con.getRhs();
+            if ((lhs.equals(lp.getAttribute()) && rhs.equals(rp.getAttribute()))
+                    || (lhs.equals(rp.getAttribute()) && rhs.equals(lp.getAttribute()))) {
+                return lp.getNumPartitions();
+            }
+        }
+        return 0;
+    }
+
+    /** Scan at the bottom of a chain of selections, null if the input is not one **/
+    static Scan baseScan(Operator node) {
+        while (node.getOpType() == OpType.SELECT) {
+            node = ((Select) node).getBase();
+        }
+        if (node.getOpType() == OpType.SCAN) {
+            return (Scan) node;
+        }
+        return null;
+    }
+
+    public boolean open() {
+        leftScan = baseScan(left);
+        rightScan = baseScan(right);
+        leftParts = leftScan.getPartitions();
+        rightParts = rightScan.getPartitions();
+        /** A partition pruned on one side cannot produce any row **/
+        parts = (BitSet) leftParts.clone();
+        parts.and(rightParts);
+        current = -1;
+        eos = false;
+        return nextPartition();
+    }
+
+    /** Opens the join over the next pair of partitions, if any **/
+    private boolean nextPartition() {
+        current = parts.nextSetBit(current + 1);
+        if (current < 0) {
+            eos = true;
+            return true;
+        }
+        BitSet part = new BitSet();
+        part.set(current);
+        leftScan.setPartitions(part);
+        rightScan.setPartitions(part);
+        return join.open();
+    }
+
+    public Batch next() {
+        while (!eos) {
+            Batch outbatch = join.next();
+            if (outbatch == null) {
+                join.close();
+                if (!nextPartition()) {
+                    System.out.println("PartitionWiseJoin: Error in opening partition " + current);
+                    System.exit(1);
+                }
+            } else if (!outbatch.isEmpty()) {
+                return outbatch;
+            }
+        }
+        return null;
+    }
+
+    /** The pages come from the join of the current partition **/
+    public void release(Batch batch) {
+        join.release(batch);
+    }
+
+    public boolean close() {
+        if (!eos) {
+            join.close();
+        }
+        leftScan.setPartitions(leftParts);
+        rightScan.setPartitions(rightParts);
+        return true;
+    }
+
+}
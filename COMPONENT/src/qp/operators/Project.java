@@ -6,6 +6,7 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.ColumnBatch;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 import qp.utils.AggregateAttribute;
@@ -101,7 +102,7 @@ public class Project extends Operator {
      * Read next tuple from operator
      */
     public Batch next() {
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         Tuple prevtuple = null;
 
         if(aggregateIsPresent) {
@@ -113,9 +114,20 @@ public class Project extends Operator {
         if (inbatch == null) {
             return null;
         }
+        /** A page read a column at a time only needs its columns re-pointed **/
+        if (!aggregateIsPresent && inbatch instanceof ColumnBatch) {
+            release(outbatch);
+            return ((ColumnBatch) inbatch).project(attrIndex);
+        }
         /* this loop reads in a tuple, and writes out updated tuple with the aggregated attributes */
         for (int i = 0; i < inbatch.size(); i++) {
             Tuple basetuple = inbatch.get(i);
+            /** Without aggregates the slots are copied as they are **/
+            if (!aggregateIsPresent) {
+                prevtuple = basetuple.project(attrIndex, prevtuple);
+                outbatch.add(prevtuple);
+                continue;
+            }
             //Debug.PPrint(basetuple);
             //System.out.println();
             boolean hasAggregate = false;
@@ -148,6 +160,11 @@ public class Project extends Operator {
                 prevtuple = outtuple;
             }
         }
+        if (aggregateIsPresent) {
+            aggOperator.release(inbatch);
+        } else {
+            base.release(inbatch);
+        }
         return outbatch;
     }
 
@@ -4,25 +4,51 @@
 
 package qp.operators;
 
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.ColumnBatch;
+import qp.utils.Condition;
+import qp.utils.Partitioning;
 import qp.utils.Schema;
+import qp.utils.TableReader;
 import qp.utils.Tuple;
 
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Scan operator - read data from a file
  */
 public class Scan extends Operator {
 
+    static boolean memoryMapped = false;  // Whether page files are scanned through a memory mapping
+    static int prefetchDepth = 0;         // Number of batches read ahead by a background thread (0: none)
+    static boolean vectorized = false;    // Whether page files are read into ColumnBatch pages
+
+    static final Batch END_OF_STREAM = new Batch(0);  // Marks the end of the prefetched batches
+
     String filename;       // Corresponding file name
     String tabname;        // Table name
     int batchsize;         // Number of tuples per out batch;
-    ObjectInputStream in;  // Input file being scanned
+    ObjectInputStream in;  // Input file being scanned (serialized tuple format)
+    TableReader reader;    // Input file being scanned (page file format)
     boolean eos;           // To indicate whether end of stream reached or not
+    boolean readDone;      // Whether the last batch has been read from the file
+    ArrayBlockingQueue<Batch> prefetched;  // Batches read ahead of the consumer
+    Thread prefetcher;     // Background thread filling the prefetched queue
+    volatile boolean stopped;  // Tells the background thread to stop reading
+    ArrayList<Attribute> required;  // Attributes used by the query, the others are not decoded (null: all)
+    ArrayList<Condition> filters = new ArrayList<>();  // Selections on this table used to skip pages
+    BitSet partitions;     // Partitions to be read, for partitioned tables (null: all)
+    int nextPartition;     // Next partition to be opened once the current one is read
+    BloomFilter runtimeFilter;  // Join keys of the other input of the join above (null: none)
+    ArrayList<Integer> runtimeIndex;  // Indices of the attributes hashed for runtimeFilter
 
     /**
      * Constructor - just save filename
@@ -33,10 +59,100 @@ public class Scan extends Operator {
         filename = tabname + ".tbl";
     }
 
+    /** Scan page files by memory-mapping them instead of reading page by page **/
+    public static void setMemoryMapped(boolean flag) {
+        memoryMapped = flag;
+    }
+
+    public static boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Read up to depth batches ahead on a background thread, so the file is
+     * read and decoded while the operator above works on the current batch.
+     * These batches are in addition to the buffers of the BufferManager
+     **/
+    public static void setPrefetchDepth(int depth) {
+        prefetchDepth = Math.max(depth, 0);
+    }
+
+    public static int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Read page files a column at a time into ColumnBatch pages, which
+     * Select filters and Project narrows without building a Tuple per row
+     **/
+    public static void setVectorized(boolean flag) {
+        vectorized = flag;
+    }
+
+    public static boolean isVectorized() {
+        return vectorized;
+    }
+
     public String getTabName() {
         return tabname;
     }
 
+    /**
+     * Attributes of this table that the query refers to. Values of the other
+     * attributes are left null in the scanned tuples, and their pages are not
+     * read at all for tables stored column by column
+     **/
+    public void setRequiredAttributes(ArrayList<Attribute> attrs) {
+        this.required = attrs;
+    }
+
+    public ArrayList<Attribute> getRequiredAttributes() {
+        return required;
+    }
+
+    /**
+     * Selection condition on a constant that is applied above this scan.
+     * Pages whose zone map shows that none of their rows can satisfy it are
+     * not read; the rows of the other pages are all returned, so the Select
+     * operator is still needed
+     **/
+    public void addFilter(Condition cn) {
+        filters.add(cn);
+    }
+
+    public ArrayList<Condition> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Restricts the scan of a partitioned table to the given partitions,
+     * e.g. to those that can hold rows satisfying the selection
+     **/
+    public void setPartitions(BitSet partitions) {
+        this.partitions = partitions;
+    }
+
+    /** Partitions read by this scan, null if the table is not partitioned **/
+    public BitSet getPartitions() {
+        Partitioning partitioning = schema.getPartitioning();
+        if (partitioning == null) return null;
+        if (partitions != null) return partitions;
+        BitSet all = new BitSet();
+        all.set(0, partitioning.getNumPartitions());
+        return all;
+    }
+
+    /**
+     * Bloom filter on the join attributes of the other input of the join
+     * above, built by the join as it read that input. The tuples whose
+     * attributes at the index are not in the filter cannot satisfy the join
+     * and are dropped from the batches returned; null removes the filter
+     **/
+    public void setRuntimeFilter(BloomFilter filter, ArrayList<Integer> index) {
+        this.runtimeFilter = filter;
+        this.runtimeIndex = index;
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
@@ -48,7 +164,59 @@ public class Scan extends Operator {
             System.out.println("Terminating as page size too small for one tuple... At least " + tuplesize + " is required.");
             return false;
         }
+        stopPrefetch();
         eos = false;
+        readDone = false;
+        nextPartition = 0;
+        if (!nextFile()) {
+            /** All the partitions were pruned **/
+            eos = true;
+            return true;
+        }
+        if (!openFile()) return false;
+        if (prefetchDepth > 0) {
+            startPrefetch();
+        }
+        return true;
+    }
+
+    /**
+     * Sets filename to the next file to be read: the table file, or the
+     * next partition file. Returns false when there is none left
+     **/
+    private boolean nextFile() {
+        BitSet parts = getPartitions();
+        if (parts == null) {
+            filename = tabname + ".tbl";
+            return nextPartition++ == 0;
+        }
+        int p = parts.nextSetBit(nextPartition);
+        if (p < 0) return false;
+        filename = Partitioning.fileName(tabname, p);
+        nextPartition = p + 1;
+        return true;
+    }
+
+    // Helper method to open the table file
+    private boolean openFile() {
+        /** Tables converted before the page file format are still
+         ** streams of serialized tuples
+         **/
+        if (TableReader.isPageFile(filename)) {
+            reader = new TableReader(filename, schema, memoryMapped);
+            if (required != null) {
+                boolean[] cols = new boolean[schema.getNumCols()];
+                for (Attribute attr : required) {
+                    int index = schema.indexOf(attr);
+                    if (index >= 0) cols[index] = true;
+                }
+                reader.setRequiredColumns(cols);
+            }
+            for (Condition cn : filters) {
+                addZoneFilter(cn);
+            }
+            return reader.open();
+        }
         try {
             in = new ObjectInputStream(new FileInputStream(filename));
         } catch (Exception e) {
@@ -58,16 +226,165 @@ public class Scan extends Operator {
         return true;
     }
 
+    /**
+     * Passes the constant of the condition, converted to the type of the
+     * attribute as Select does, to the reader. Conditions that cannot be
+     * converted are left to the Select operator alone
+     **/
+    private void addZoneFilter(Condition cn) {
+        if (!(cn.getRhs() instanceof String)) return;
+        int index = schema.indexOf(cn.getLhs());
+        if (index < 0) return;
+        Object value = Partitioning.parseValue(schema.typeOf(cn.getLhs()), (String) cn.getRhs());
+        if (value == null) return;
+        reader.addFilter(index, cn.getExprType(), value);
+    }
+
+    /**
+     * Starts the background thread that reads the batches ahead into a queue,
+     * followed by END_OF_STREAM once the file is exhausted
+     **/
+    private void startPrefetch() {
+        prefetched = new ArrayBlockingQueue<>(prefetchDepth);
+        stopped = false;
+        prefetcher = new Thread(() -> {
+            try {
+                while (!readDone && !stopped) {
+                    prefetched.put(readBatch());
+                }
+                if (!stopped) prefetched.put(END_OF_STREAM);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Scan-" + tabname);
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+    }
+
+    /**
+     * Stops the background thread, if any, before the file is closed. The
+     * thread is not interrupted as that would close the file channel it may be
+     * reading from; the queue is emptied instead so that its last put returns
+     **/
+    private void stopPrefetch() {
+        if (prefetcher == null) return;
+        stopped = true;
+        prefetched.clear();
+        try {
+            prefetcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        prefetcher = null;
+        prefetched = null;
+    }
+
     /**
      * Next operator - get a tuple from the file
      **/
     public Batch next() {
+        Batch tuples = nextBatch();
+        if (runtimeFilter == null) {
+            return tuples;
+        }
+        /** Skip the batches left empty by the runtime filter **/
+        while (tuples != null) {
+            applyRuntimeFilter(tuples);
+            if (!tuples.isEmpty() || eos) {
+                return tuples;
+            }
+            release(tuples);
+            tuples = nextBatch();
+        }
+        return null;
+    }
+
+    // Helper method to get the next batch read from the file
+    private Batch nextBatch() {
         /** The file reached its end and no more to read **/
         if (eos) {
             close();
             return null;
         }
-        Batch tuples = new Batch(batchsize);
+        if (prefetcher != null) {
+            Batch tuples;
+            try {
+                tuples = prefetched.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (tuples == END_OF_STREAM) {
+                close();
+                eos = true;
+                return null;
+            }
+            return tuples;
+        }
+        Batch tuples = readBatch();
+        if (readDone) eos = true;
+        return tuples;
+    }
+
+    // Helper method to drop the tuples of the batch that are not in the runtime filter
+    private void applyRuntimeFilter(Batch tuples) {
+        BloomFilter filter = runtimeFilter;
+        ArrayList<Integer> index = runtimeIndex;
+        if (tuples instanceof ColumnBatch) {
+            ((ColumnBatch) tuples).filter(t -> filter.mightContain(Tuple.hashSlots(t, index)));
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < tuples.size(); ++i) {
+            Tuple t = tuples.get(i);
+            if (filter.mightContain(Tuple.hashSlots(t, index))) {
+                tuples.set(t, kept++);
+            }
+        }
+        for (int i = tuples.size() - 1; i >= kept; --i) {
+            tuples.remove(i);
+        }
+    }
+
+    /**
+     * Reads the next batch of tuples from the file, setting readDone
+     * when the end of the file is reached
+     **/
+    private Batch readBatch() {
+        if (vectorized && reader != null) {
+            ColumnBatch columns = new ColumnBatch(batchsize, reader.getSlotKinds());
+            while (!columns.isFull()) {
+                if (!reader.nextColumns(columns) || !columns.isFull()) {
+                    /** Carry on with the next partition, if any **/
+                    reader.close();
+                    reader = null;
+                    if (!nextFile() || !openFile()) {
+                        readDone = true;
+                        return columns;
+                    }
+                    if (reader == null) return columns;  // Serialized tuple file
+                }
+            }
+            return columns;
+        }
+        Batch tuples = newBatch(batchsize);
+        if (reader != null) {
+            while (!tuples.isFull()) {
+                Tuple data = reader.next();
+                if (data == null) {
+                    /** Carry on with the next partition, if any **/
+                    reader.close();
+                    reader = null;
+                    if (!nextFile() || !openFile()) {
+                        readDone = true;
+                        return tuples;
+                    }
+                    continue;
+                }
+                tuples.add(data);
+            }
+            return tuples;
+        }
         while (!tuples.isFull()) {
             try {
                 Tuple data = (Tuple) in.readObject();
@@ -79,7 +396,7 @@ public class Scan extends Operator {
                 /** At this point incomplete page is sent and at next call it considered
                  ** as end of file
                  **/
-                eos = true;
+                readDone = true;
                 return tuples;
             } catch (IOException e) {
                 System.err.println("Scan:Error reading " + filename);
@@ -94,6 +411,11 @@ public class Scan extends Operator {
      * * is already reached
      **/
     public boolean close() {
+        stopPrefetch();
+        if (reader != null) {
+            return reader.close();
+        }
+        if (in == null) return true;
         try {
             in.close();
         } catch (IOException e) {
@@ -107,6 +429,11 @@ public class Scan extends Operator {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
         newscan.setSchema((Schema) schema.clone());
+        newscan.setRequiredAttributes(required);
+        for (Condition cn : filters) {
+            newscan.addFilter(cn);
+        }
+        newscan.setPartitions(partitions);
         return newscan;
     }
 
@@ -21,6 +21,15 @@ public class Select extends Operator {
     Batch outbatch;  // This is the current output buffer
     int start;       // Cursor position in the input buffer
 
+    int index;       // Index of the attribute of the condition
+    int rhsIndex;    // Index of the attribute on the right of the condition (-1: a constant)
+    int datatype;    // Type of the attribute of the condition
+    int intConstant;      // Constant of the condition on an INTEGER attribute
+    float floatConstant;  // Constant of the condition on a REAL attribute
+
+    StringDictionary constantDict;  // Dictionary the constant was last looked up in
+    int constantCode;               // Code of the constant in that dictionary (-1: absent)
+
     /**
      * constructor
      **/
@@ -61,6 +70,19 @@ public class Select extends Operator {
             return false;
         }
 
+        /** The attributes and the constant are looked up once instead of once per tuple **/
+        Attribute attr = con.getLhs();
+        index = schema.indexOf(attr);
+        datatype = schema.typeOf(attr);
+        rhsIndex = -1;
+        if (con.getRhs() instanceof Attribute) {
+            rhsIndex = schema.indexOf((Attribute) con.getRhs());
+        } else if (con.getRhs() instanceof String && datatype == Attribute.INT) {
+            intConstant = Integer.parseInt((String) con.getRhs());
+        } else if (con.getRhs() instanceof String && datatype == Attribute.REAL) {
+            floatConstant = Float.parseFloat((String) con.getRhs());
+        }
+
         if (base.open())
             return true;
         else
@@ -80,7 +102,7 @@ public class Select extends Operator {
         }
 
         /** An output buffer is initiated **/
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
 
         /** keep on checking the incoming pages until
          ** the output buffer is full
@@ -93,6 +115,13 @@ public class Select extends Operator {
                     eos = true;
                     return outbatch;
                 }
+                /** A page read a column at a time is filtered in place and passed on **/
+                if (inbatch instanceof ColumnBatch && outbatch.isEmpty()) {
+                    filterColumns((ColumnBatch) inbatch);
+                    if (inbatch.isEmpty()) continue;
+                    release(outbatch);
+                    return inbatch;
+                }
             }
 
             /** Continue this for loop until this page is fully observed
@@ -110,14 +139,30 @@ public class Select extends Operator {
             /** Modify the cursor to the position requierd
              ** when the base operator is called next time;
              **/
-            if (i == inbatch.size())
+            if (i == inbatch.size()) {
                 start = 0;
-            else
+                base.release(inbatch);  // The selected tuples are in outbatch
+            } else
                 start = i;
         }
         return outbatch;
     }
 
+    /**
+     * Drops the tuples of the batch that do not satisfy the condition.
+     * A comparison of an INTEGER or REAL attribute with a constant is done
+     * on the column of values, anything else tuple by tuple
+     **/
+    private void filterColumns(ColumnBatch batch) {
+        if (rhsIndex < 0 && datatype == Attribute.INT && batch.kindAt(index) == Tuple.INT_SLOT) {
+            batch.filterInts(index, con.getExprType(), intConstant);
+        } else if (rhsIndex < 0 && datatype == Attribute.REAL && batch.kindAt(index) == Tuple.REAL_SLOT) {
+            batch.filterFloats(index, con.getExprType(), floatConstant);
+        } else {
+            batch.filter(this::checkCondition);
+        }
+    }
+
     /**
      * closes the output connection
      * * i.e., no more pages to output
@@ -127,24 +172,32 @@ public class Select extends Operator {
         return true;
     }
 
+    /**
+     * Code of the constant of the condition in the dictionary of the value,
+     * looked up once per dictionary
+     **/
+    private int constantCode(DictString value) {
+        if (value.getDictionary() != constantDict) {
+            constantDict = value.getDictionary();
+            constantCode = constantDict.lookup((String) con.getRhs());
+        }
+        return constantCode;
+    }
+
     /**
      * To check whether the selection condition is satisfied for
      * * the present tuple
      **/
     protected boolean checkCondition(Tuple tuple) {
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        int datatype = schema.typeOf(attr);
-        Object srcValue = tuple.dataAt(index);
         int exprtype = con.getExprType();
 
         if (datatype == Attribute.INT) {
-            int srcVal = ((Integer) srcValue).intValue();
+            int srcVal = tuple.getInt(index);
             int checkVal = 0;
             if (con.getRhs() instanceof String) {
-                checkVal = Integer.parseInt((String) con.getRhs());
+                checkVal = intConstant;
             } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Integer) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).intValue();
+                checkVal = tuple.getInt(rhsIndex);
             } else {
                 System.out.println("Select: Malformed condition");
             }
@@ -170,12 +223,17 @@ public class Select extends Operator {
                 System.out.println("Select: Incorrect condition operator");
             }
         } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
+            Object srcValue = tuple.dataAt(index);
             int flag = 0;
             if (con.getRhs() instanceof String) {
-                flag = srcVal.compareTo((String) con.getRhs());
+                /** Equality on a dictionary encoded value only compares the codes **/
+                if (srcValue instanceof DictString && (exprtype == Condition.EQUAL || exprtype == Condition.NOTEQUAL)) {
+                    boolean equal = ((DictString) srcValue).getCode() == constantCode((DictString) srcValue);
+                    return (exprtype == Condition.EQUAL) == equal;
+                }
+                flag = Tuple.compareStrings(srcValue, con.getRhs());
             } else if (con.getRhs() instanceof Attribute) {
-                flag = srcVal.compareTo(((String) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))));
+                flag = Tuple.compareStrings(srcValue, tuple.dataAt(rhsIndex));
             } else {
                 System.out.println("Select: Malformed condition");
             }
@@ -195,12 +253,12 @@ public class Select extends Operator {
                 System.out.println("Select: Incorrect condition operator");
             }
         } else if (datatype == Attribute.REAL) {
-            float srcVal = ((Float) srcValue).floatValue();
+            float srcVal = tuple.getFloat(index);
             float checkVal = 0;
             if (con.getRhs() instanceof String) {
-                checkVal = Float.parseFloat((String) con.getRhs());
+                checkVal = floatConstant;
             } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Float) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).floatValue();
+                checkVal = tuple.getFloat(rhsIndex);
             } else {
                 System.out.println("Select: Malformed condition");
             }
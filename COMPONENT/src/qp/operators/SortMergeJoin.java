@@ -1,15 +1,16 @@
 package qp.operators;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
 import qp.utils.Sort;
 import qp.utils.Tuple;
+import qp.utils.TupleInputStream;
 
 /**
  * SortMergeJoin operator will merge two sorted relations given a condition list
@@ -24,11 +25,11 @@ public class SortMergeJoin extends Join{
     Boolean isCartesian;
 
     private Sort leftSort;
-    private ObjectInputStream leftSortedFile = null;
+    private TupleInputStream leftSortedFile = null;
     private boolean leftSortedFileEndReached = false;
 
     private Sort rightSort; 
-    private ObjectInputStream rightSortedFile = null;
+    private TupleInputStream rightSortedFile = null;
     private boolean rightSortedFileEndReached = false;
 
     private ArrayList<Tuple> rightSideTuples = null;
@@ -45,6 +46,7 @@ public class SortMergeJoin extends Join{
         schema = jn.getSchema();
         numBuff = jn.getNumBuff();
         jointype = jn.getJoinType();
+        leftTuples = jn.getLeftTuples();
     }
 
     /**
@@ -63,7 +65,13 @@ public class SortMergeJoin extends Join{
             System.exit(1);
         }
 
+        /** The join may be opened again, e.g. once per partition **/
         bufferedTuples = new ArrayList<>();
+        bufferedNoLongerMatched = true;
+        leftSideTuples = null;
+        rightSideTuples = null;
+        leftSortedFileEndReached = false;
+        rightSortedFileEndReached = false;
         leftindex = new ArrayList<>();
         rightindex = new ArrayList<>();
         exprindex = new ArrayList<>();
@@ -91,8 +99,20 @@ public class SortMergeJoin extends Join{
                 exprindex.add(compareType);
             }
         } 
+        /** Rows of the right input without a match on the equality conditions are dropped by its Scan **/
+        ArrayList<Integer> leftkeys = new ArrayList<>();
+        ArrayList<Integer> rightkeys = new ArrayList<>();
+        for (int i = 0; i < exprindex.size(); ++i) {
+            if (exprindex.get(i) == Condition.EQUAL) {
+                leftkeys.add(leftindex.get(i));
+                rightkeys.add(rightindex.get(i));
+            }
+        }
+        BloomFilter keys = leftkeys.isEmpty() ? null : runtimeFilter();
         leftSort = new Sort(left, numBuff, leftOrderType, batchsize);
+        leftSort.setKeys(keys, leftkeys);
         leftSortedFile = this.leftSort.performSort();
+        pushRuntimeFilter(keys, rightkeys);
         rightSort = new Sort(right, numBuff, rightOrderType, batchsize);
         rightSortedFile = this.rightSort.performSort();
         return true;
@@ -104,7 +124,7 @@ public class SortMergeJoin extends Join{
      * Assume buffered tuples to be able to fit in one buffer for simplicity.
      **/
     public Batch next() {
-        Batch outbatch = new Batch(batchsize);
+        Batch outbatch = newBatch(batchsize);
         int added = 0;
         int tuplesPerSide = batchsize * (numBuff - 2) / 2;
 
@@ -211,14 +231,14 @@ public class SortMergeJoin extends Join{
      * Simulate filling buffers with tuples from sorted object stream.
      * Set end of file reached if stream returns a null object.
      **/
-    private ArrayList<Tuple> fillTuple(int totalTupleSize, ObjectInputStream sortedFile, int type) {
+    private ArrayList<Tuple> fillTuple(int totalTupleSize, TupleInputStream sortedFile, int type) {
         ArrayList<Tuple> tuples = new ArrayList<>();
 
         for (int i = 0; i < totalTupleSize; i++) {
-            Object inStream = null;
+            Tuple inStream = null;
             try {
-                inStream = sortedFile.readObject();
-            } catch (ClassNotFoundException | IOException e) {
+                inStream = sortedFile.readTuple();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
             if (inStream == null) {
@@ -229,8 +249,7 @@ public class SortMergeJoin extends Join{
                 }
                 break;
             } else {
-                Tuple tuple = (Tuple) inStream;
-                tuples.add(tuple);
+                tuples.add(inStream);
             }
         }
         return tuples;
@@ -8,14 +8,12 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.Catalog;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.StringTokenizer;
 
 public class PlanCost {
 
@@ -170,9 +168,15 @@ public class PlanCost {
         }
         long outtuples = (long) Math.ceil(tuples);
 
-        /** Calculate the cost of the operation **/
+        /** Calculate the cost of the operation, a partition-wise join
+         ** costs the join of the partitions once per partition
+         **/
         int joinType = node.getJoinType();
         long numbuff = BufferManager.getBuffersPerJoin();
+        long numparts = Math.max(1, PartitionWiseJoin.numPartitions(node));
+        node.setLeftTuples((long) Math.ceil((double) lefttuples / numparts));
+        leftpages = (long) Math.ceil((double) leftpages / numparts);
+        rightpages = (long) Math.ceil((double) rightpages / numparts);
         long joincost;
 
         switch (joinType) {
@@ -189,11 +193,22 @@ public class PlanCost {
                 int rightNumPasses = 1 + (int) Math.ceil(Math.log(Math.ceil(rightpages / (1.0 * numbuff))) / Math.log(rightpages - 1));
                 joincost = leftNumPasses * leftpages * 2 + rightNumPasses * rightpages * 2 + leftpages + rightpages;
                 break;
+            case JoinType.HASHJOIN:
+                /** Read and write both inputs to partition them, then read the partitions back.
+                 ** In hybrid mode, the part of the inputs whose left partitions fit in memory
+                 ** is only read once
+                 **/
+                joincost = 3 * (leftpages + rightpages);
+                if (HashJoin.isHybrid()) {
+                    double spilled = Math.max(0, 1 - (numbuff - 2) / (double) Math.max(leftpages, 1));
+                    joincost = leftpages + rightpages + 2 * (long) Math.ceil(spilled * (leftpages + rightpages));
+                }
+                break;
             default:
                 System.out.println("join type is not supported");
                 return 0;
         }
-        cost = cost + joincost;
+        cost = cost + numparts * joincost;
 
         return outtuples;
     }
@@ -250,51 +265,20 @@ public class PlanCost {
      * * about that table;
      * * This table contains number of tuples in the table
      * * number of distinct values of each attribute
+     * * The file is read once and then kept by the Catalog
      **/
     protected long getStatistics(Scan node) {
-        String tablename = node.getTabName();
-        String filename = tablename + ".stat";
+        Catalog.TableStatistics stats = Catalog.getStatistics(node.getTabName());
         Schema schema = node.getSchema();
         int numAttr = schema.getNumCols();
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new FileReader(filename));
-        } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
-            System.exit(1);
-        }
-        String line = null;
-
-        // First line = number of tuples
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("Error in readin first line of " + filename);
-            System.exit(1);
-        }
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != 1) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
-        }
-        String temp = tokenizer.nextToken();
-        long numtuples = Long.parseLong(temp);
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("error in reading second line of " + filename);
-            System.exit(1);
-        }
-        tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
-            System.out.println("incorrect format of statastics file " + filename);
+        if (stats.getNumCols() != numAttr) {
+            System.out.println("incorrect format of statastics file " + node.getTabName() + ".stat");
             System.exit(1);
         }
+        long numtuples = stats.getNumTuples();
         for (int i = 0; i < numAttr; ++i) {
             Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Long distinctValues = Long.valueOf(temp);
-            ht.put(attr, distinctValues);
+            ht.put(attr, stats.getNumDistinct(i));
         }
 
         /** Number of tuples per page**/
@@ -302,14 +286,14 @@ public class PlanCost {
         long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
         long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
 
-        cost = cost + numpages;
-
-        try {
-            in.close();
-        } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
-            System.exit(1);
+        /** Only the pages of the partitions left after pruning are read **/
+        BitSet parts = node.getPartitions();
+        if (parts != null) {
+            numpages = (long) Math.ceil((double) numpages * parts.cardinality()
+                    / schema.getPartitioning().getNumPartitions());
         }
+
+        cost = cost + numpages;
         return numtuples;
     }
 
@@ -7,8 +7,6 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.*;
 
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
@@ -77,19 +75,18 @@ public class RandomInitialPlan {
             Scan op1 = new Scan(tabname, OpType.SCAN);
             tempop = op1;
 
-            /** Read the schema of the table from tablename.md file
+            /** The schema of the table comes from its tablename.md file
              ** md stands for metadata
              **/
-            String filename = tabname + ".md";
-            try {
-                ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
-                Schema schm = (Schema) _if.readObject();
-                op1.setSchema(schm);
-                _if.close();
-            } catch (Exception e) {
-                System.err.println("RandomInitialPlan:Error reading Schema of the table " + filename);
-                System.err.println(e);
-                System.exit(1);
+            op1.setSchema(Catalog.getSchema(tabname));
+            op1.setRequiredAttributes(getRequiredAttributes(tabname));
+            /** Selections on a constant also let the scan skip pages **/
+            for (Condition cn : selectionlist) {
+                if (cn.getOpType() == Condition.SELECT && cn.getLhs().getTabName().equals(tabname))
+                    op1.addFilter(cn);
+            }
+            if (op1.getSchema().getPartitioning() != null) {
+                op1.setPartitions(prunePartitions(op1));
             }
             tab_op_hash.put(tabname, op1);
         }
@@ -106,6 +103,62 @@ public class RandomInitialPlan {
 
     }
 
+    /**
+     * Partitions of the scanned table that can hold rows satisfying all
+     * the selections on a constant of the partitioning attribute
+     **/
+    private BitSet prunePartitions(Scan scan) {
+        Schema schema = scan.getSchema();
+        Partitioning partitioning = schema.getPartitioning();
+        BitSet parts = new BitSet();
+        parts.set(0, partitioning.getNumPartitions());
+        for (Condition cn : scan.getFilters()) {
+            if (!cn.getLhs().equals(partitioning.getAttribute()) || !(cn.getRhs() instanceof String)) {
+                continue;
+            }
+            Object value = Partitioning.parseValue(schema.typeOf(cn.getLhs()), (String) cn.getRhs());
+            if (value != null) {
+                parts.and(partitioning.candidates(cn.getExprType(), value));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Attributes of the table that are referred to anywhere in the query:
+     * the project list and the selection, join, groupby and orderby attributes.
+     * Returns null when all attributes are needed (SELECT *)
+     **/
+    private ArrayList<Attribute> getRequiredAttributes(String tabname) {
+        if (projectlist == null || projectlist.isEmpty()) {
+            return null;
+        }
+        ArrayList<Attribute> used = new ArrayList<>();
+        for (Attribute attr : projectlist) {
+            used.add(attr.getBaseAttribute());
+        }
+        ArrayList<Condition> conditions = new ArrayList<>(selectionlist);
+        conditions.addAll(joinlist);
+        for (Condition cn : conditions) {
+            if (cn.getLhs() != null) {
+                used.add(cn.getLhs());
+            }
+            if (cn.getRhs() instanceof Attribute) {
+                used.add((Attribute) cn.getRhs());
+            }
+        }
+        used.addAll(groupbylist);
+        used.addAll(orderbylist);
+
+        ArrayList<Attribute> required = new ArrayList<>();
+        for (Attribute attr : used) {
+            if (attr.getTabName().equals(tabname) && !required.contains(attr)) {
+                required.add(attr);
+            }
+        }
+        return required;
+    }
+
     /**
      * Create Selection Operators for each of the
      * * selection condition mentioned in Condition list
@@ -202,7 +255,8 @@ public class RandomInitialPlan {
                 jn = new Join(left, right, OpType.JOIN);
                 Schema newsche = left.getSchema().joinWith(right.getSchema());
                 jn.setSchema(newsche);
-                int numJMeth = JoinType.numJoinTypes();
+                /** A hash join needs an equality condition, so it is not one of the choices **/
+                int numJMeth = JoinType.HASHJOIN;
                 int joinMeth = RandNumb.randInt(0, numJMeth - 1);
                 jn.setJoinType(joinMeth);
                 modifyHashtable(left, jn);
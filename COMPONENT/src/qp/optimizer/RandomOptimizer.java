@@ -48,30 +48,46 @@ public class RandomOptimizer {
             Operator right = makeExecPlan(((Join) node).getRight());
             int joinType = ((Join) node).getJoinType();
             int numbuff = BufferManager.getBuffersPerJoin();
+            Join join;
             switch (joinType) {
                 case JoinType.NESTEDJOIN:
                     NestedJoin nj = new NestedJoin((Join) node);
                     nj.setLeft(left);
                     nj.setRight(right);
                     nj.setNumBuff(numbuff);
-                    return nj;
+                    join = nj;
+                    break;
                 case JoinType.SORTMERGE:
                     System.out.println("Im in SORT MERGE");
                     SortMergeJoin smj = new SortMergeJoin((Join) node);
                     smj.setLeft(left);
                     smj.setRight(right);
                     smj.setNumBuff(numbuff);
-                    return smj;
+                    join = smj;
+                    break;
                 case JoinType.BLOCKNESTED:
                     System.out.println("Im in block join");
                     BlockNestedJoin bnj = new BlockNestedJoin((Join) node);
                     bnj.setLeft(left);
                     bnj.setRight(right);
                     bnj.setNumBuff(numbuff);
-                    return bnj;
+                    join = bnj;
+                    break;
+                case JoinType.HASHJOIN:
+                    HashJoin hj = new HashJoin((Join) node);
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
+                    join = hj;
+                    break;
                 default:
                     return node;
             }
+            /** Join co-partitioned tables one partition at a time **/
+            if (PartitionWiseJoin.numPartitions(join) > 1) {
+                return new PartitionWiseJoin(join);
+            }
+            return join;
         } else if (node.getOpType() == OpType.SELECT) {
             Operator base = makeExecPlan(((Select) node).getBase());
             ((Select) node).setBase(base);
@@ -224,11 +240,15 @@ public class RandomOptimizer {
             /** find the node that is to be altered **/
             Join node = (Join) findNodeAt(root, joinNum);
             for (Condition c: node.getConditionList()) {
-                if (c.getOpType() != Condition.EQUAL) {
+                if (c.getExprType() != Condition.EQUAL) {
                     node.setJoinType(JoinType.BLOCKNESTED);
                     return root;
                 }
             }
+            /** A hash join needs an equality condition, a cartesian join cannot use it **/
+            if (node.getConditionList().isEmpty()) {
+                numJMeth = JoinType.HASHJOIN;
+            }
             int prevJoinMeth = node.getJoinType();
             int joinMeth = RandNumb.randInt(0, numJMeth - 1);
             while (joinMeth == prevJoinMeth) {
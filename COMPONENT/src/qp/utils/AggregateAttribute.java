@@ -13,6 +13,8 @@ public class AggregateAttribute {
     private int totalSum;               //used for calculating AVG (ie the numerator)
     private int totalCount;             //used for calculating AVG (ie the denominator)
     private int aggregateValDataType;   //the data type of the column data to be aggregated (either Integer or String)
+    private int intAggregateVal;        //MIN or MAX of Integer data, kept unboxed until getAggregateVal
+    private boolean hasIntAggregateVal; //whether intAggregateVal has been set
 
     /**
      * Construct the aggregate attribute and initialise the aggregateVal value according to the relevant aggregate operation
@@ -43,61 +45,73 @@ public class AggregateAttribute {
      * Obtain the aggregate value for this attribute, according to operation type and data type
      */
     public void setAggregateVal(Tuple intuple){
-        Object val = intuple.dataAt(attrIndex);
-        if (val instanceof Integer) {
+        Object val = null;
+        if (intuple.kindAt(attrIndex) == Tuple.INT_SLOT) {
             aggregateValDataType = 1;
-        } else if (val instanceof String) {
-            aggregateValDataType = 2;
         } else {
-            return;
+            val = intuple.dataAt(attrIndex);
+            if (val instanceof String || val instanceof DictString) {
+                aggregateValDataType = 2;
+            } else {
+                return;
+            }
         }
 
-        /* if attribute is Integer */
+        /* if attribute is Integer, read from its slot without boxing */
         if (aggregateValDataType == 1) {
+            int intVal = intuple.getInt(attrIndex);
             switch (aggregateType) {
                 case Attribute.MIN:
-                    if (aggregateVal == null || (int) val < (int) aggregateVal){
-                        aggregateVal = val;
+                    if (!hasIntAggregateVal || intVal < intAggregateVal){
+                        intAggregateVal = intVal;
                     }
+                    hasIntAggregateVal = true;
                 break;
                 case Attribute.MAX:
-                    if (aggregateVal == null || (int) aggregateVal < (int) val) {
-                        aggregateVal = val;
+                    if (!hasIntAggregateVal || intAggregateVal < intVal) {
+                        intAggregateVal = intVal;
                     }
+                    hasIntAggregateVal = true;
                 break;
                 case Attribute.COUNT: 
-                    aggregateVal = (int) aggregateVal + 1; 
+                    totalCount += 1;
                 break;
                 case Attribute.AVG:
-                    totalSum = totalSum + (int)val;
+                    totalSum = totalSum + intVal;
                     totalCount += 1;
-                    aggregateVal = totalSum / totalCount;
                 break;
             }
         }
 
         /* if attribute is String */
         if (aggregateValDataType == 2) {
-            String valString = (String) val;
+            String valString = val.toString();
             switch (aggregateType) {
                 case Attribute.MIN:
-                    if (aggregateVal==null || valString.compareTo((String) aggregateVal) > 0){
+                    if (aggregateVal==null || valString.compareTo(aggregateVal.toString()) > 0){
                         aggregateVal = valString;
                     }
                 break;
                 case Attribute.MAX:
-                    if (aggregateVal == null || (valString.compareTo((String) aggregateVal) < 0)) {
+                    if (aggregateVal == null || (valString.compareTo(aggregateVal.toString()) < 0)) {
                         aggregateVal = valString;
                     }
                 break;
                 case Attribute.COUNT: 
-                    aggregateVal = (int) aggregateVal + 1; 
+                    totalCount += 1;
                 break;
             }
         }
     }
 
     public Object getAggregateVal() {
+        if (aggregateType == Attribute.COUNT) {
+            return totalCount;
+        } else if (aggregateType == Attribute.AVG) {
+            return totalCount == 0 ? 0 : totalSum / totalCount;
+        } else if (hasIntAggregateVal) {
+            return intAggregateVal;
+        }
         return aggregateVal;
     }
 
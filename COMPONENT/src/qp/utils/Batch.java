@@ -6,6 +6,7 @@ package qp.utils;
 
 import java.util.ArrayList;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Batch implements Serializable {
 
@@ -13,6 +14,8 @@ public class Batch implements Serializable {
     static int PageSize;      // Number of bytes per page
     ArrayList<Tuple> tuples;  // The tuples in the page
 
+    static final AtomicLong numAllocated = new AtomicLong();  // Number of pages created so far
+
     /** Set number of bytes per page **/
     public static void setPageSize(int size) {
         PageSize = size;
@@ -27,6 +30,15 @@ public class Batch implements Serializable {
     public Batch(int numtuple) {
         MAX_SIZE = numtuple;
         tuples = new ArrayList<>(MAX_SIZE);
+        numAllocated.incrementAndGet();
+    }
+
+    /**
+     * Number of pages created since the start, of any kind. Pages reused
+     * through Operator.release are not counted again
+     **/
+    public static long getNumAllocated() {
+        return numAllocated.get();
     }
 
     /** Insert the record in page at next free location **/
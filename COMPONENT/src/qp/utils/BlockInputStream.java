@@ -0,0 +1,96 @@
+/**
+ * Input stream that reads back the blocks written by BlockOutputStream
+ **/
+
+package qp.utils;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class BlockInputStream extends FilterInputStream {
+
+    byte[] block = new byte[BlockOutputStream.BLOCK_SIZE];  // Decompressed bytes of the current block
+    int count = 0;                                          // Number of bytes in block
+    int pos = 0;                                            // Next byte of block to be read
+    byte[] compressed = new byte[LZBlock.maxCompressedLength(BlockOutputStream.BLOCK_SIZE)];
+    byte[] header = new byte[8];                            // Lengths of the block
+
+    public BlockInputStream(InputStream in) {
+        super(in);
+    }
+
+    public int read() throws IOException {
+        if (pos == count && !readBlock()) return -1;
+        return block[pos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == count && !readBlock()) return -1;
+        int n = Math.min(len, count - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (pos == count && !readBlock()) break;
+            int k = (int) Math.min(n - skipped, count - pos);
+            pos += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    public int available() {
+        return count - pos;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    // Helper method to read and decompress the next block, false at the end of the stream
+    private boolean readBlock() throws IOException {
+        if (!readFully(header, 8, true)) return false;
+        int rawLen = getInt(header, 0);
+        int len = getInt(header, 4);
+        if (rawLen > block.length || len > compressed.length || len > rawLen) {
+            throw new IOException("BlockInputStream: corrupted block");
+        }
+        if (len == rawLen) {
+            readFully(block, len, false);
+        } else {
+            readFully(compressed, len, false);
+            if (LZBlock.decompress(compressed, 0, len, block, 0) != rawLen) {
+                throw new IOException("BlockInputStream: corrupted block");
+            }
+        }
+        count = rawLen;
+        pos = 0;
+        return true;
+    }
+
+    // Helper method to read len bytes, false if the stream ends before the first one and atBoundary
+    private boolean readFully(byte[] buf, int len, boolean atBoundary) throws IOException {
+        int done = 0;
+        while (done < len) {
+            int n = in.read(buf, done, len - done);
+            if (n < 0) {
+                if (done == 0 && atBoundary) return false;
+                throw new EOFException("BlockInputStream: truncated block");
+            }
+            done += n;
+        }
+        return true;
+    }
+
+    static int getInt(byte[] buf, int pos) {
+        return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+                | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Output stream that compresses the bytes written to it block by block
+ **/
+
+package qp.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The bytes are buffered into blocks of BLOCK_SIZE bytes and every block is
+ * written compressed by LZBlock, preceded by its length before and after
+ * compression. A block that does not get smaller is written as it is, which
+ * shows as equal lengths. See BlockInputStream for reading it back.
+ */
+public class BlockOutputStream extends FilterOutputStream {
+
+    public static final int BLOCK_SIZE = 1 << 16;  // Number of bytes compressed at a time
+
+    byte[] block = new byte[BLOCK_SIZE];           // Bytes not written yet
+    int count = 0;                                 // Number of bytes in block
+    byte[] compressed = new byte[8 + LZBlock.maxCompressedLength(BLOCK_SIZE)];  // Block as written
+
+    public BlockOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public void write(int b) throws IOException {
+        if (count == block.length) writeBlock();
+        block[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) writeBlock();
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    // Helper method to write the buffered bytes as one block
+    private void writeBlock() throws IOException {
+        if (count == 0) return;
+        int len = LZBlock.compress(block, 0, count, compressed, 8);
+        if (len >= count) {           // Incompressible, written as it is
+            System.arraycopy(block, 0, compressed, 8, count);
+            len = count;
+        }
+        putInt(compressed, 0, count);
+        putInt(compressed, 4, len);
+        out.write(compressed, 0, 8 + len);
+        count = 0;
+    }
+
+    static void putInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 24);
+        buf[pos + 1] = (byte) (value >>> 16);
+        buf[pos + 2] = (byte) (value >>> 8);
+        buf[pos + 3] = (byte) value;
+    }
+}
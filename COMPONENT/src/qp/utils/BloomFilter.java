@@ -0,0 +1,101 @@
+/**
+ * Bloom filter over the hash values of join keys
+ **/
+
+package qp.utils;
+
+/**
+ * BloomFilter holds the hash values of the join attributes of one input of
+ * a join (see Tuple.hashSlots), so that tuples of the other input whose join
+ * attributes cannot match any of them are dropped where they are read (see
+ * Scan.setRuntimeFilter). mightContain is never false for a value that was
+ * added; it is true for about 1% of the other values when the number of
+ * distinct values added is the one the filter was sized for.
+ * The filter is sized up front, from the number of values expected, at
+ * BITS_PER_KEY bits per value and at most MAX_BITS bits, and the values are
+ * added to it directly as the input is read.
+ */
+public class BloomFilter {
+
+    static final int BITS_PER_KEY = 10;      // Bits of the filter for each value expected
+    static final int NUM_HASHES = 7;         // Bits set for each value
+    static final long MAX_BITS = 1L << 23;   // Largest filter, 1MB
+    static final double MAX_FALSE_POSITIVES = 0.5;  // Rate above which the filter is not worth checking
+
+    static boolean enabled = false;  // Whether joins push filters on their build keys to the other input
+
+    long[] words;    // Bits of the filter
+    int mask;        // Number of bits of the filter less one, a power of two less one
+    long numSet;     // Number of bits set
+
+    /** Filter sized for the expected number of distinct values **/
+    public BloomFilter(long expectedKeys) {
+        long wanted = Math.min(Math.max(expectedKeys, 1) * BITS_PER_KEY, MAX_BITS);
+        long numBits = wanted <= 64 ? 64 : Long.highestOneBit(wanted - 1) * 2;
+        words = new long[(int) (numBits / 64)];
+        mask = (int) (numBits - 1);
+    }
+
+    /**
+     * Have HashJoin and SortMergeJoin build a filter on the join attributes of
+     * their left input and push it to the Scan of their right input
+     **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Sets the bits of a hash value **/
+    public void add(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            int bit = (h1 + i * h2) & mask;
+            long word = words[bit >>> 6];
+            if ((word & (1L << bit)) == 0) {
+                words[bit >>> 6] = word | (1L << bit);
+                numSet++;
+            }
+        }
+    }
+
+    /** Whether the hash value may have been added, false if it surely was not **/
+    public boolean mightContain(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            int bit = (h1 + i * h2) & mask;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the filter still drops most values that were not added. It lets
+     * more of them through when many more distinct values were added than
+     * the filter was sized for, e.g. after a low estimate of the input
+     **/
+    public boolean isSelective() {
+        double fill = (double) numSet / (mask + 1L);
+        return Math.pow(fill, NUM_HASHES) <= MAX_FALSE_POSITIVES;
+    }
+
+    // Helper method to spread the bits of a hash value, which is the value itself
+    // for a single INTEGER attribute, over the 64 bits the bit positions are taken from
+    private static long mix(int hash) {
+        long h = hash * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * In memory catalog of the schemas and statistics of the base tables
+ **/
+
+package qp.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+ * The Catalog reads the <tablename>.md and <tablename>.stat files of a table
+ * the first time they are asked for and keeps them in memory, so that the
+ * optimizer can build and cost any number of plans without going back to
+ * the files. A cached entry is checked against the modification time and
+ * length of its file at most once after each call to refresh(), which is
+ * done once per query; an entry whose file has changed since, e.g. by
+ * running ConvertTxtToTbl or BulkLoad again, is read again.
+ */
+public class Catalog {
+
+    static HashMap<String, Entry> schemas = new HashMap<>();     // Table name to its .md entry
+    static HashMap<String, Entry> statistics = new HashMap<>();  // Table name to its .stat entry
+    static int generation = 0;                                   // Incremented by refresh()
+
+    /** A cached file along with what it looked like when it was read **/
+    static class Entry {
+        Object value;      // Schema or TableStatistics read from the file
+        long modified;     // Modification time of the file when read
+        long length;       // Length of the file when read
+        int checked;       // Generation at which the file was last checked
+    }
+
+    /** Statistics of a base table, as found in its .stat file **/
+    public static class TableStatistics {
+        long numTuples;     // Number of tuples in the table
+        long[] distinct;    // Number of distinct values of each attribute
+
+        TableStatistics(long numTuples, long[] distinct) {
+            this.numTuples = numTuples;
+            this.distinct = distinct;
+        }
+
+        public long getNumTuples() {
+            return numTuples;
+        }
+
+        public long getNumDistinct(int attrAt) {
+            return distinct[attrAt];
+        }
+
+        public int getNumCols() {
+            return distinct.length;
+        }
+    }
+
+    /**
+     * Makes the next lookup of every table check its files again.
+     * Called at the start of each query
+     **/
+    public static synchronized void refresh() {
+        generation++;
+    }
+
+    /** Drops every cached entry **/
+    public static synchronized void clear() {
+        schemas.clear();
+        statistics.clear();
+    }
+
+    /**
+     * Returns a copy of the schema of the table, which the caller is free to modify.
+     * Exits if the .md file cannot be read
+     **/
+    public static Schema getSchema(String tabname) {
+        String filename = tabname + ".md";
+        Schema schema = null;
+        try {
+            schema = (Schema) lookup(schemas, filename, tabname, false);
+        } catch (Exception e) {
+            System.err.println("Catalog: Error reading Schema of the table " + filename);
+            System.err.println(e);
+            System.exit(1);
+        }
+        return (Schema) schema.clone();
+    }
+
+    /**
+     * Returns the statistics of the table.
+     * Exits if the .stat file cannot be read or does not match the schema
+     **/
+    public static TableStatistics getStatistics(String tabname) {
+        String filename = tabname + ".stat";
+        TableStatistics stats = null;
+        try {
+            stats = (TableStatistics) lookup(statistics, filename, tabname, true);
+        } catch (IOException io) {
+            System.out.println("Catalog: Error in reading statistics file " + filename);
+            System.out.println(io.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.out.println("Catalog: Error reading statistics of the table " + filename);
+            System.exit(1);
+        }
+        return stats;
+    }
+
+    /** Returns the cached value of the file, reading it if it is new or has changed **/
+    private static synchronized Object lookup(HashMap<String, Entry> cache, String filename,
+                                              String tabname, boolean isStat) throws Exception {
+        Entry entry = cache.get(tabname);
+        if (entry != null && entry.checked == generation) {
+            return entry.value;
+        }
+        File file = new File(filename);
+        long modified = file.lastModified();
+        long length = file.length();
+        if (entry == null || entry.modified != modified || entry.length != length) {
+            entry = new Entry();
+            entry.value = isStat ? readStatistics(filename, tabname) : readSchema(filename);
+            entry.modified = modified;
+            entry.length = length;
+            cache.put(tabname, entry);
+        }
+        entry.checked = generation;
+        return entry.value;
+    }
+
+    private static Schema readSchema(String filename) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename))) {
+            return (Schema) in.readObject();
+        }
+    }
+
+    /**
+     * The first line of the .stat file holds the number of tuples of the table,
+     * the second line the number of distinct values of each attribute
+     **/
+    private static TableStatistics readStatistics(String filename, String tabname) throws Exception {
+        int numAttr = ((Schema) lookup(schemas, tabname + ".md", tabname, false)).getNumCols();
+        try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("missing number of tuples");
+            }
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            if (tokenizer.countTokens() != 1) {
+                throw new IOException("incorrect format of statistics file " + filename);
+            }
+            long numtuples = Long.parseLong(tokenizer.nextToken());
+
+            line = in.readLine();
+            if (line == null) {
+                throw new IOException("missing number of distinct values");
+            }
+            tokenizer = new StringTokenizer(line);
+            if (tokenizer.countTokens() != numAttr) {
+                throw new IOException("incorrect format of statistics file " + filename);
+            }
+            long[] distinct = new long[numAttr];
+            for (int i = 0; i < numAttr; ++i) {
+                distinct[i] = Long.parseLong(tokenizer.nextToken());
+            }
+            return new TableStatistics(numtuples, distinct);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * Column-major page of tuples with a selection vector
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * ColumnBatch keeps a page of tuples column by column: one int array per
+ * INTEGER or REAL attribute (REAL values as their float bits) and one
+ * Object array per STRING attribute, as decoded by TableReader.nextColumns.
+ * The rows that are still part of the batch are listed in a selection
+ * vector, so Select filters a batch by shrinking the vector instead of
+ * copying tuples, and Project re-points the columns of a new batch at
+ * those of the old one.
+ * The row methods of Batch still work: get(i) builds the Tuple of the i-th
+ * selected row once and keeps it, and methods that modify the batch by
+ * position first turn it into an ordinary row batch.
+ */
+public class ColumnBatch extends Batch {
+
+    private static final long serialVersionUID = 1L;
+
+    byte[] kinds;        // Slot kind of each column, shared with the tuples built from it
+    int[][] ints;        // Values of each INT_SLOT or REAL_SLOT column (null for the others)
+    Object[][] refs;     // Values of each OBJECT_SLOT column (null for the others)
+    int numRows;         // Number of rows stored in the columns
+    int[] selection;     // Row of each tuple of the batch, ascending
+    int numSelected;     // Number of tuples of the batch
+    Tuple[] rows;        // Tuples built by get, by row (null until first needed)
+    boolean rowMode;     // Whether the tuples were moved into the row list of Batch
+
+    /** Batch of up to numtuple rows with columns of the given slot kinds **/
+    public ColumnBatch(int numtuple, byte[] kinds) {
+        super(0);
+        MAX_SIZE = numtuple;
+        this.kinds = kinds;
+        ints = new int[kinds.length][];
+        refs = new Object[kinds.length][];
+        for (int i = 0; i < kinds.length; ++i) {
+            if (kinds[i] == Tuple.INT_SLOT || kinds[i] == Tuple.REAL_SLOT) {
+                ints[i] = new int[numtuple];
+            } else if (kinds[i] == Tuple.OBJECT_SLOT) {
+                refs[i] = new Object[numtuple];
+            }
+        }
+        selection = new int[numtuple];
+    }
+
+    /** Batch sharing the columns and selection vector of another one **/
+    private ColumnBatch(ColumnBatch other, byte[] kinds, int[][] ints, Object[][] refs) {
+        super(0);
+        MAX_SIZE = other.MAX_SIZE;
+        this.kinds = kinds;
+        this.ints = ints;
+        this.refs = refs;
+        numRows = other.numRows;
+        selection = other.selection;
+        numSelected = other.numSelected;
+    }
+
+    public int getNumCols() {
+        return kinds.length;
+    }
+
+    public byte kindAt(int col) {
+        return kinds[col];
+    }
+
+    /** Row of the i-th tuple of the batch **/
+    public int rowAt(int i) {
+        return selection[i];
+    }
+
+    /** Value of an INT_SLOT column in the i-th tuple of the batch **/
+    public int getInt(int col, int i) {
+        return ints[col][selection[i]];
+    }
+
+    /** Value of a REAL_SLOT column in the i-th tuple of the batch **/
+    public float getFloat(int col, int i) {
+        return Float.intBitsToFloat(ints[col][selection[i]]);
+    }
+
+    /** Value of an OBJECT_SLOT column in the i-th tuple of the batch **/
+    public Object getObject(int col, int i) {
+        return refs[col][selection[i]];
+    }
+
+    /** Int array of an INT_SLOT or REAL_SLOT column, indexed by row, to be filled by the reader **/
+    int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /** Object array of an OBJECT_SLOT column, indexed by row, to be filled by the reader **/
+    Object[] refColumn(int col) {
+        return refs[col];
+    }
+
+    /** Adds count rows whose values were written into the columns, and selects them **/
+    void addRows(int count) {
+        for (int i = 0; i < count; ++i) {
+            selection[numSelected++] = numRows++;
+        }
+    }
+
+    /** Appends the values of the tuple as a new row **/
+    public void add(Tuple t) {
+        t = t.materialize();
+        if (!rowMode && !Arrays.equals(t.kinds, kinds)) {
+            toRows();  // The columns cannot hold it
+        }
+        if (rowMode) {
+            super.add(t);
+            return;
+        }
+        for (int c = 0; c < kinds.length; ++c) {
+            if (ints[c] != null) {
+                ints[c][numRows] = t.values[c];
+            } else if (refs[c] != null) {
+                refs[c][numRows] = t.dataAt(c);
+            }
+        }
+        addRows(1);
+    }
+
+    /**
+     * Keeps the tuples whose INTEGER value in the column satisfies
+     *  value exprtype constant, e.g. Condition.LESSTHAN
+     **/
+    public void filterInts(int col, int exprtype, int constant) {
+        toColumns();
+        int[] values = ints[col];
+        int kept = 0;
+        for (int i = 0; i < numSelected; ++i) {
+            int row = selection[i];
+            int cmp = Integer.compare(values[row], constant);
+            if (satisfies(cmp, exprtype)) selection[kept++] = row;
+        }
+        shrink(kept);
+    }
+
+    /**
+     * Keeps the tuples whose REAL value in the column satisfies
+     *  value exprtype constant, e.g. Condition.LESSTHAN
+     **/
+    public void filterFloats(int col, int exprtype, float constant) {
+        toColumns();
+        int[] values = ints[col];
+        int kept = 0;
+        for (int i = 0; i < numSelected; ++i) {
+            int row = selection[i];
+            if (satisfies(Float.intBitsToFloat(values[row]), exprtype, constant)) selection[kept++] = row;
+        }
+        shrink(kept);
+    }
+
+    /** Keeps the tuples satisfying the predicate, which is given the Tuple of each **/
+    public void filter(Predicate<Tuple> predicate) {
+        toColumns();
+        int kept = 0;
+        for (int i = 0; i < numSelected; ++i) {
+            if (predicate.test(get(i))) selection[kept++] = selection[i];
+        }
+        shrink(kept);
+    }
+
+    // Helper method to end the selection vector after the tuples that were kept
+    private void shrink(int kept) {
+        numSelected = kept;
+    }
+
+    private static boolean satisfies(int cmp, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return cmp < 0;
+            case Condition.GREATERTHAN:
+                return cmp > 0;
+            case Condition.LTOE:
+                return cmp <= 0;
+            case Condition.GTOE:
+                return cmp >= 0;
+            case Condition.EQUAL:
+                return cmp == 0;
+            case Condition.NOTEQUAL:
+                return cmp != 0;
+            default:
+                return false;
+        }
+    }
+
+    // Same comparisons as Select, e.g. NaN satisfies NOTEQUAL only
+    private static boolean satisfies(float value, int exprtype, float constant) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return value < constant;
+            case Condition.GREATERTHAN:
+                return value > constant;
+            case Condition.LTOE:
+                return value <= constant;
+            case Condition.GTOE:
+                return value >= constant;
+            case Condition.EQUAL:
+                return value == constant;
+            case Condition.NOTEQUAL:
+                return value != constant;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Batch of the given columns of this one, in that order. The column
+     * arrays and the selection vector are shared, not copied
+     **/
+    public ColumnBatch project(int[] indexes) {
+        toColumns();
+        byte[] newKinds = new byte[indexes.length];
+        int[][] newInts = new int[indexes.length][];
+        Object[][] newRefs = new Object[indexes.length][];
+        for (int i = 0; i < indexes.length; ++i) {
+            newKinds[i] = kinds[indexes[i]];
+            newInts[i] = ints[indexes[i]];
+            newRefs[i] = refs[indexes[i]];
+        }
+        return new ColumnBatch(this, newKinds, newInts, newRefs);
+    }
+
+    public int size() {
+        return rowMode ? super.size() : numSelected;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Full when no more rows can be stored, even if some were filtered out **/
+    public boolean isFull() {
+        return rowMode ? super.isFull() : numRows == MAX_SIZE;
+    }
+
+    /** Tuple of the i-th selected row, built once **/
+    public Tuple get(int i) {
+        if (rowMode) return super.get(i);
+        int row = selection[i];
+        if (rows == null) rows = new Tuple[MAX_SIZE];
+        Tuple t = rows[row];
+        if (t == null) {
+            int n = kinds.length;
+            int[] values = new int[n];
+            Object[] tuplerefs = null;
+            for (int c = 0; c < n; ++c) {
+                if (ints[c] != null) {
+                    values[c] = ints[c][row];
+                } else if (refs[c] != null) {
+                    if (tuplerefs == null) tuplerefs = new Object[n];
+                    tuplerefs[c] = refs[c][row];
+                }
+            }
+            t = new Tuple(kinds, values, tuplerefs);
+            rows[row] = t;
+        }
+        return t;
+    }
+
+    public void clear() {
+        rowMode = false;
+        super.clear();
+        numRows = 0;
+        numSelected = 0;
+        rows = null;
+    }
+
+    public boolean contains(Tuple t) {
+        toRows();
+        return super.contains(t);
+    }
+
+    public int indexOf(Tuple t) {
+        toRows();
+        return super.indexOf(t);
+    }
+
+    public void add(Tuple t, int i) {
+        toRows();
+        super.add(t, i);
+    }
+
+    public void remove(int i) {
+        toRows();
+        super.remove(i);
+    }
+
+    public void set(Tuple t, int i) {
+        toRows();
+        super.set(t, i);
+    }
+
+    // Helper method to move the selected tuples into the row list of Batch
+    private void toRows() {
+        if (rowMode) return;
+        for (int i = 0; i < numSelected; ++i) {
+            tuples.add(get(i));
+        }
+        rowMode = true;
+    }
+
+    // Helper method to make sure the tuples are in the columns
+    private void toColumns() {
+        if (!rowMode) return;
+        for (int i = 0; i < tuples.size(); ++i) {
+            if (!Arrays.equals(tuples.get(i).materialize().kinds, kinds) || i >= MAX_SIZE) {
+                System.out.println("ColumnBatch: tuples do not fit the columns");
+                System.exit(1);
+            }
+        }
+        rowMode = false;
+        numRows = 0;
+        numSelected = 0;
+        rows = null;
+        for (int i = 0; i < tuples.size(); ++i) {
+            add(tuples.get(i));
+        }
+        tuples.clear();
+    }
+
+    /** Written out as an ordinary row batch, e.g. into the materialized input of a join **/
+    private Object writeReplace() {
+        Batch batch = new Batch(MAX_SIZE);
+        for (int i = 0; i < size(); ++i) {
+            batch.add(get(i));
+        }
+        return batch;
+    }
+}
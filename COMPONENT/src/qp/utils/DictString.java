@@ -0,0 +1,69 @@
+/**
+ * STRING value of a dictionary encoded table
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+
+/**
+ * A DictString is the code of a string within the StringDictionary of its
+ * table. Two values of the same dictionary are equal exactly when their codes
+ * are, so equality is decided without comparing characters. Values of
+ * different dictionaries, or plain Strings, are compared by their strings.
+ * A DictString is written out as a plain String when serialized, e.g. into
+ * the sorted runs of Sort, as the dictionary does not go along with it.
+ */
+public class DictString implements Comparable<Object>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient StringDictionary dict;  // Dictionary the code belongs to
+    final int code;                         // Code of the value
+    final String value;                     // The decoded value
+
+    DictString(StringDictionary dict, int code, String value) {
+        this.dict = dict;
+        this.code = code;
+        this.value = value;
+    }
+
+    public StringDictionary getDictionary() {
+        return dict;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String toString() {
+        return value;
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof DictString) {
+            DictString that = (DictString) other;
+            if (that.dict == dict) return that.code == code;
+            return that.value.equals(value);
+        }
+        return value.equals(other);
+    }
+
+    public int hashCode() {
+        return value.hashCode();  // Same as the String, so both can be mixed in hash tables
+    }
+
+    public int compareTo(Object other) {
+        if (other instanceof DictString) {
+            DictString that = (DictString) other;
+            if (that.dict == dict && that.code == code) return 0;
+            return value.compareTo(that.value);
+        }
+        return value.compareTo((String) other);
+    }
+
+    /** Serialized as the plain string **/
+    private Object writeReplace() {
+        return value;
+    }
+}
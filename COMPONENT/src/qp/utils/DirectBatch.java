@@ -0,0 +1,161 @@
+/**
+ * Page of tuples stored off the Java heap
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * DirectBatch stores its tuples as rows of bytes in a direct ByteBuffer of
+ * exactly Batch.getPageSize() bytes, allocated once and reused after clear.
+ * A row is a null bitmap, one bit per attribute, followed by the fixed width
+ * slots of the PageLayout of the schema, so a page holds as many tuples as
+ * fit in its bytes. The values are decoded into a new Tuple by get(i).
+ * An operator keeping B of these pages for a long time, e.g. the left block
+ * of BlockNestedJoin, then holds B pages of memory whatever the tuples are,
+ * and that memory is outside the heap the garbage collector scans.
+ */
+public class DirectBatch extends Batch {
+
+    private static final long serialVersionUID = 1L;
+
+    static boolean enabled = false;  // Whether operators keep their blocks of pages in DirectBatch pages
+
+    PageLayout layout;     // Slots of the values of a row
+    int nullBytes;         // Number of bytes of the null bitmap of a row
+    int rowWidth;          // Number of bytes of a row
+    ByteBuffer page;       // Rows of the page, back to back
+    int numRows;           // Number of rows in the page
+
+    /** Empty page for tuples of the schema, rowsPerPage(schema) must not be 0 **/
+    public DirectBatch(Schema schema) {
+        super(0);
+        layout = new PageLayout(schema);
+        nullBytes = (layout.getNumCols() + 7) / 8;
+        rowWidth = nullBytes + layout.getRowWidth();
+        page = ByteBuffer.allocateDirect(Batch.getPageSize());
+        MAX_SIZE = Batch.getPageSize() / rowWidth;
+    }
+
+    /** Keep the blocks of pages of the operators off the heap **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Number of tuples of the schema that fit in a page **/
+    public static int rowsPerPage(Schema schema) {
+        PageLayout layout = new PageLayout(schema);
+        return Batch.getPageSize() / ((layout.getNumCols() + 7) / 8 + layout.getRowWidth());
+    }
+
+    /** Insert the record in page at next free location **/
+    public void add(Tuple t) {
+        encode(t, numRows);
+        numRows++;
+    }
+
+    public Tuple get(int i) {
+        int pos = i * rowWidth;
+        int n = layout.getNumCols();
+        byte[] kinds = layout.slotKinds(null);
+        for (int c = 0; c < n; ++c) {
+            if ((page.get(pos + c / 8) & (1 << (c % 8))) != 0) {
+                if (kinds == layout.slotKinds(null)) kinds = kinds.clone();
+                kinds[c] = Tuple.NULL_SLOT;
+            }
+        }
+        Tuple tuple = new Tuple(kinds, new int[n], layout.hasStrings ? new Object[n] : null);
+        for (int c = 0; c < n; ++c) {
+            if (kinds[c] != Tuple.NULL_SLOT) {
+                layout.decodeSlot(c, page, pos + nullBytes + layout.getOffset(c), tuple);
+            }
+        }
+        return tuple;
+    }
+
+    public void set(Tuple t, int i) {
+        encode(t, i);
+    }
+
+    public void add(Tuple t, int i) {
+        moveRows(i, i + 1, numRows - i);
+        numRows++;
+        encode(t, i);
+    }
+
+    public void remove(int i) {
+        moveRows(i + 1, i, numRows - i - 1);
+        numRows--;
+    }
+
+    /** Tuples are decoded anew by get, so only the same tuple is found, as in Batch **/
+    public boolean contains(Tuple t) {
+        return indexOf(t) >= 0;
+    }
+
+    public int indexOf(Tuple t) {
+        for (int i = 0; i < numRows; ++i) {
+            if (get(i).equals(t)) return i;
+        }
+        return -1;
+    }
+
+    public void clear() {
+        numRows = 0;
+    }
+
+    public boolean isEmpty() {
+        return numRows == 0;
+    }
+
+    public int size() {
+        return numRows;
+    }
+
+    // Helper method to write the tuple into the given row
+    private void encode(Tuple t, int i) {
+        int pos = i * rowWidth;
+        for (int b = 0; b < nullBytes; ++b) {
+            page.put(pos + b, (byte) 0);
+        }
+        try {
+            for (int c = 0; c < layout.getNumCols(); ++c) {
+                if (t.kindAt(c) == Tuple.NULL_SLOT) {
+                    page.put(pos + c / 8, (byte) (page.get(pos + c / 8) | (1 << (c % 8))));
+                } else {
+                    page.position(pos + nullBytes + layout.getOffset(c));
+                    layout.encodeColumn(c, t, page);
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("DirectBatch: " + io.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Helper method to move count rows from one row to another, the rows may overlap
+    private void moveRows(int from, int to, int count) {
+        if (count <= 0) return;
+        ByteBuffer src = page.duplicate();
+        src.limit((from + count) * rowWidth).position(from * rowWidth);
+        ByteBuffer copy = ByteBuffer.allocate(count * rowWidth).put(src);
+        copy.flip();
+        page.position(to * rowWidth);
+        page.put(copy);
+    }
+
+    /** Written out as an ordinary row batch, e.g. into the materialized input of a join **/
+    private Object writeReplace() {
+        Batch batch = new Batch(MAX_SIZE);
+        for (int i = 0; i < numRows; ++i) {
+            batch.add(get(i));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Estimate of the number of distinct values of an attribute
+ **/
+
+package qp.utils;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in a
+ * fixed 16KB, however many values there are: each value is hashed to 64
+ * bits, the first 14 bits pick one of 16384 registers and the register
+ * keeps the longest run of leading zeros seen in the other bits. The
+ * estimate is within about 1% of the actual number.
+ * Until more than MAX_EXACT distinct values have been added, their hash
+ * values are kept instead and counted exactly. Sketches of parts of a
+ * table are merged into the sketch of the whole table (see BulkLoad).
+ */
+public class HyperLogLog {
+
+    static final int BITS = 14;                // Bits of the hash value that pick the register
+    static final int NUM_REGISTERS = 1 << BITS;
+    static final int MAX_EXACT = 2048;        // Number of distinct values counted exactly
+
+    long[] hashes = new long[2 * MAX_EXACT];  // Hash values added, by open addressing (0: empty), null once full
+    int numHashes;                            // Number of hash values in hashes
+    byte[] registers;                         // Longest run of leading zeros, plus one, per register
+
+    /** Adds the value of the slot of the tuple, null values are not counted **/
+    public void add(Tuple tuple, int slot) {
+        switch (tuple.kindAt(slot)) {
+            case Tuple.NULL_SLOT:
+                return;
+            case Tuple.INT_SLOT:
+                addHash(mix(tuple.getInt(slot)));
+                return;
+            case Tuple.REAL_SLOT:
+                addHash(mix(Float.floatToIntBits(tuple.getFloat(slot))));
+                return;
+            default:
+                addHash(hashString(tuple.dataAt(slot).toString()));
+        }
+    }
+
+    /** Adds the values of another sketch to this one **/
+    public void merge(HyperLogLog other) {
+        if (other.registers == null) {
+            for (long hash : other.hashes) {
+                if (hash != 0) addHash(hash);
+            }
+            return;
+        }
+        if (registers == null) {
+            useRegisters();
+        }
+        for (int i = 0; i < NUM_REGISTERS; ++i) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /** Estimated number of distinct values added **/
+    public long estimate() {
+        if (registers == null) {
+            return numHashes;
+        }
+        double sum = 0;
+        int empty = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) empty++;
+        }
+        double m = NUM_REGISTERS;
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log(m / empty);
+        }
+        return Math.round(estimate);
+    }
+
+    // Helper method to add a hash value to the exact values, or to update the register it picks
+    private void addHash(long hash) {
+        if (hash == 0) {
+            hash = 1;  // 0 marks the empty slots of hashes
+        }
+        if (registers == null) {
+            int slot = (int) (hash >>> 1) & (hashes.length - 1);
+            while (hashes[slot] != 0) {
+                if (hashes[slot] == hash) return;
+                slot = (slot + 1) & (hashes.length - 1);
+            }
+            hashes[slot] = hash;
+            if (++numHashes > MAX_EXACT) {
+                useRegisters();
+            }
+            return;
+        }
+        int register = (int) (hash >>> (64 - BITS));
+        long rest = (hash << BITS) | (1L << (BITS - 1));
+        byte zeros = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (zeros > registers[register]) {
+            registers[register] = zeros;
+        }
+    }
+
+    // Helper method to move from the exact values to the registers
+    private void useRegisters() {
+        registers = new byte[NUM_REGISTERS];
+        long[] exact = hashes;
+        hashes = null;
+        for (long hash : exact) {
+            if (hash != 0) addHash(hash);
+        }
+    }
+
+    // Helper method to hash the characters of a STRING value to 64 bits, String.hashCode
+    // has too few bits for the number of distinct strings of a large table
+    private static long hashString(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // Helper method to spread the bits of a value over all 64 bits of the hash
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
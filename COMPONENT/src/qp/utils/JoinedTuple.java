@@ -0,0 +1,82 @@
+/**
+ * Result of joining two tuples, without copying their values
+ **/
+
+package qp.utils;
+
+/**
+ * JoinedTuple is the concatenation of a left and a right tuple: slot i is
+ * slot i of the left tuple if i is below the number of left values, and
+ * slot i - leftSize of the right tuple otherwise. The joins return these
+ * instead of copying both sides into a new tuple for every match, so a wide
+ * intermediate row of a multi-way join is not copied again at each level.
+ * The values are only copied when the tuple is projected (Tuple.project),
+ * written to a temporary file or stored in a page, see materialize().
+ * Tuples are not modified once built, so referring to the inputs is safe.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    final Tuple left;      // Tuple of the first values
+    final Tuple right;     // Tuple of the remaining values
+    final int leftSize;    // Number of values of left
+    final int size;        // Number of values
+    Tuple materialized;    // Copy of the values, once made
+
+    JoinedTuple(Tuple left, Tuple right) {
+        super(null, null, null);
+        this.left = left;
+        this.right = right;
+        leftSize = left.size();
+        size = leftSize + right.size();
+    }
+
+    public Object dataAt(int index) {
+        return index < leftSize ? left.dataAt(index) : right.dataAt(index - leftSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte kindAt(int index) {
+        return index < leftSize ? left.kindAt(index) : right.kindAt(index - leftSize);
+    }
+
+    public int getInt(int index) {
+        return index < leftSize ? left.getInt(index) : right.getInt(index - leftSize);
+    }
+
+    public float getFloat(int index) {
+        return index < leftSize ? left.getFloat(index) : right.getFloat(index - leftSize);
+    }
+
+    int valueAt(int index) {
+        return index < leftSize ? left.valueAt(index) : right.valueAt(index - leftSize);
+    }
+
+    /** Tuple with a copy of all the values, made once **/
+    public Tuple materialize() {
+        if (materialized == null) {
+            byte[] kinds = new byte[size];
+            int[] values = new int[size];
+            Object[] refs = null;
+            for (int i = 0; i < size; ++i) {
+                kinds[i] = kindAt(i);
+                values[i] = valueAt(i);
+                if (kinds[i] == OBJECT_SLOT) {
+                    if (refs == null) refs = new Object[size];
+                    refs[i] = dataAt(i);
+                }
+            }
+            materialized = new Tuple(kinds, values, refs);
+        }
+        return materialized;
+    }
+
+    /** Serialized as the tuple of its values **/
+    private Object writeReplace() {
+        return materialize();
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Tuple paired with its normalized sort key
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+
+/**
+ * KeyedTuple pairs a tuple with its sort key, the values it is sorted on
+ * encoded so that comparing two keys byte by byte, unsigned, gives the
+ * order of the tuples (see OrderByComparator.keyOf). The key is encoded
+ * once per tuple instead of decoding the values at every comparison.
+ */
+public class KeyedTuple implements Comparable<KeyedTuple> {
+
+    final byte[] key;    // Normalized sort key
+    final Tuple tuple;   // Tuple the key was encoded from
+
+    public KeyedTuple(byte[] key, Tuple tuple) {
+        this.key = key;
+        this.tuple = tuple;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public Tuple getTuple() {
+        return tuple;
+    }
+
+    public int compareTo(KeyedTuple other) {
+        return Arrays.compareUnsigned(key, other.key);
+    }
+
+    /** Whether both tuples have the same sort key, e.g. duplicates for DISTINCT **/
+    public boolean sameKey(KeyedTuple other) {
+        return Arrays.equals(key, other.key);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Block compression codec of the LZ77 family
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZBlock compresses a block of bytes as a sequence of (literals, match)
+ * pairs in the style of LZ4. Each sequence starts with a token byte holding
+ * the number of literals in its upper 4 bits and the match length minus 4
+ * in its lower 4 bits (a nibble of 15 is followed by more length bytes of
+ * 255 until a byte below 255), then the literals and a 2 byte little endian
+ * offset back to the start of the match. The last sequence has literals only.
+ * Matches are found through a hash table of the 4 byte sequences seen so far,
+ * which is fast and trades compression ratio for speed.
+ */
+public class LZBlock {
+
+    static final int MIN_MATCH = 4;         // Shortest match that is encoded
+    static final int MAX_OFFSET = 65535;    // Farthest back a match may start
+    static final int LAST_LITERALS = 5;     // Bytes at the end of the block that are always literals
+    static final int MATCH_LIMIT = 12;      // No match starts within this many bytes of the end
+    static final int HASH_LOG = 12;         // Number of bits of the hash table index
+
+    /** Largest number of bytes the compressed form of len bytes can take **/
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compresses src[srcOff, srcOff + len) into dst starting at dstOff and
+     * returns the number of bytes written. dst must have room for
+     * maxCompressedLength(len) bytes
+     **/
+    public static int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + len;
+        int limit = srcEnd - MATCH_LIMIT;
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int anchor = srcOff;    // Start of the literals not yet written
+        int ip = srcOff;
+        int op = dstOff;
+        while (ip < limit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip += 1 + ((ip - anchor) >>> 6);  // Step faster through data that does not compress
+                continue;
+            }
+            /** Extend the match as far as allowed **/
+            int matchLen = MIN_MATCH;
+            int maxLen = srcEnd - LAST_LITERALS - ip;
+            while (matchLen < maxLen && src[ref + matchLen] == src[ip + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLen);
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(src, anchor, srcEnd - anchor, dst, op, 0, 0);
+        return op - dstOff;
+    }
+
+    /**
+     * Decompresses src[srcOff, srcOff + len) into dst starting at dstOff
+     * and returns the number of bytes written
+     **/
+    public static int decompress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException {
+        int srcEnd = srcOff + len;
+        int ip = srcOff;
+        int op = dstOff;
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip == srcEnd) break;  // The last sequence has no match
+
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLen = token & 0x0f;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff) {
+                    throw new IOException("LZBlock: corrupted block");
+                }
+                /** The match may overlap the bytes being written, so copy byte by byte **/
+                for (int i = 0; i < matchLen; ++i) {
+                    dst[op + i] = dst[ref + i];
+                }
+                op += matchLen;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("LZBlock: corrupted block");
+        }
+        return op - dstOff;
+    }
+
+    // Helper method to write the literals followed by the match (matchLen 0: no match)
+    private static int writeSequence(byte[] src, int litStart, int litLen, byte[] dst, int op,
+                                     int offset, int matchLen) {
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15) {
+            op = writeLength(dst, op, litLen - 15);
+        }
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int len = matchLen - MIN_MATCH;
+            token |= Math.min(len, 15);
+            if (len >= 15) {
+                op = writeLength(dst, op, len - 15);
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8)
+                | ((buf[pos + 2] & 0xff) << 16) | ((buf[pos + 3] & 0xff) << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
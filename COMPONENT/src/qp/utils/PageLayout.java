@@ -0,0 +1,255 @@
+/**
+ * Fixed width slot layout of a tuple inside a table page
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PageLayout computes the byte offset of every attribute of a schema
+ * using the attribute sizes recorded in the .md file, and encodes/decodes
+ * tuples to and from those slots.
+ * INTEGER and REAL values take 4 bytes, a STRING value takes its attribute
+ * size: a 2 byte length followed by the UTF-8 bytes of the string.
+ * With a StringDictionary, a STRING value takes 4 bytes instead: its code
+ * in the dictionary.
+ */
+public class PageLayout {
+
+    public static final int PAGE_HEADER_SIZE = 4;  // Number of rows stored in the page
+
+    int numCols;       // Number of attributes in a row
+    int[] types;       // Type of each attribute
+    int[] widths;      // Number of bytes for each attribute
+    int[] offsets;     // Offset of each attribute within a row
+    int rowWidth;      // Number of bytes for a row
+    StringDictionary dict;  // Dictionary of the STRING values (null: stored as strings)
+    boolean hasStrings;     // Whether some attribute is a STRING
+    byte[] kinds;           // Tuple slot kinds of the decoded tuples with all attributes
+    boolean[] lastRequired; // Required attributes the kinds below were computed for
+    byte[] requiredKinds;   // Tuple slot kinds of the decoded tuples with those attributes only
+
+    public PageLayout(Schema schema) {
+        this(schema, null);
+    }
+
+    public PageLayout(Schema schema, StringDictionary dict) {
+        this.dict = dict;
+        numCols = schema.getNumCols();
+        types = new int[numCols];
+        widths = new int[numCols];
+        offsets = new int[numCols];
+        rowWidth = 0;
+        for (int i = 0; i < numCols; ++i) {
+            Attribute attr = schema.getAttribute(i);
+            types[i] = attr.getType();
+            widths[i] = (dict != null && types[i] == Attribute.STRING) ? 4 : slotWidth(attr);
+            offsets[i] = rowWidth;
+            rowWidth += widths[i];
+            hasStrings |= types[i] == Attribute.STRING;
+        }
+        kinds = slotKinds(null);
+    }
+
+    /** Number of bytes required to store a value of this attribute **/
+    public static int slotWidth(Attribute attr) {
+        if (attr.getType() == Attribute.STRING) {
+            return Math.max(attr.getAttrSize(), 2);
+        }
+        return 4;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getRowWidth() {
+        return rowWidth;
+    }
+
+    public int getWidth(int col) {
+        return widths[col];
+    }
+
+    public int getType(int col) {
+        return types[col];
+    }
+
+    public StringDictionary getDictionary() {
+        return dict;
+    }
+
+    /** Number of rows that fit in a page of the given size **/
+    public int rowsPerPage(int pagesize) {
+        return (pagesize - PAGE_HEADER_SIZE) / rowWidth;
+    }
+
+    /** Number of values of the attribute that fit in a page of the given size, for COLUMN_LAYOUT **/
+    public int valuesPerPage(int col, int pagesize) {
+        return (pagesize - PAGE_HEADER_SIZE) / getWidth(col);
+    }
+
+    /** Writes the tuple at the current position of the buffer **/
+    public void encode(Tuple tuple, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        for (int i = 0; i < numCols; ++i) {
+            buf.position(start + offsets[i]);
+            encodeColumn(i, tuple, buf);
+        }
+        buf.position(start + rowWidth);
+    }
+
+    /**
+     * Kinds of the slots of the decoded tuples, shared by all of them.
+     * Attributes that are not required are left null (required == null: all)
+     **/
+    public byte[] slotKinds(boolean[] required) {
+        if (required == null && kinds != null) return kinds;
+        if (required != null && required == lastRequired) return requiredKinds;
+        byte[] result = new byte[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            if (required != null && !required[i]) {
+                result[i] = Tuple.NULL_SLOT;
+            } else if (types[i] == Attribute.INT) {
+                result[i] = Tuple.INT_SLOT;
+            } else if (types[i] == Attribute.REAL) {
+                result[i] = Tuple.REAL_SLOT;
+            } else {
+                result[i] = Tuple.OBJECT_SLOT;
+            }
+        }
+        if (required != null) {
+            lastRequired = required;
+            requiredKinds = result;
+        }
+        return result;
+    }
+
+    /** Creates a tuple whose slots are then filled by decodeSlot **/
+    public Tuple newTuple(boolean[] required) {
+        return new Tuple(slotKinds(required), new int[numCols], hasStrings ? new Object[numCols] : null);
+    }
+
+    /**
+     * Reads one value of the given attribute stored at an absolute position
+     * into the slot of the tuple, INTEGER and REAL values are not boxed
+     **/
+    public void decodeSlot(int col, ByteBuffer buf, int pos, Tuple tuple) {
+        if (types[col] == Attribute.INT || types[col] == Attribute.REAL) {
+            tuple.values[col] = buf.getInt(pos);  // The float bits for REAL
+        } else {
+            tuple.refs[col] = decodeColumn(col, buf, pos);
+        }
+    }
+
+    /**
+     * Reads count values of the given attribute, the first at an absolute
+     * position of the buffer and each next one stride bytes further, into
+     * the column of the batch from its next free row on
+     **/
+    public void decodeColumn(int col, ByteBuffer buf, int pos, int stride, int count, ColumnBatch batch) {
+        int row = batch.numRows;
+        if (types[col] == Attribute.INT || types[col] == Attribute.REAL) {
+            int[] values = batch.intColumn(col);
+            for (int i = 0; i < count; ++i, pos += stride) {
+                values[row + i] = buf.getInt(pos);  // The float bits for REAL
+            }
+        } else {
+            Object[] values = batch.refColumn(col);
+            for (int i = 0; i < count; ++i, pos += stride) {
+                values[row + i] = decodeColumn(col, buf, pos);
+            }
+        }
+    }
+
+    /** Offset of the given attribute within a row **/
+    public int getOffset(int col) {
+        return offsets[col];
+    }
+
+    /** Reads the tuple stored at the given absolute position of the buffer **/
+    public Tuple decode(ByteBuffer buf, int pos) {
+        return decode(buf, pos, null);
+    }
+
+    /**
+     * Reads the tuple stored at the given absolute position of the buffer,
+     * attributes that are not required are left null (required == null: all)
+     **/
+    public Tuple decode(ByteBuffer buf, int pos, boolean[] required) {
+        Tuple tuple = newTuple(required);
+        for (int i = 0; i < numCols; ++i) {
+            if (required == null || required[i]) {
+                decodeSlot(i, buf, pos + offsets[i], tuple);
+            }
+        }
+        return tuple;
+    }
+
+    /** Writes the value of the given attribute of the tuple at the current position of the buffer **/
+    public void encodeColumn(int col, Tuple tuple, ByteBuffer buf) throws IOException {
+        byte kind = tuple.kindAt(col);
+        if (types[col] == Attribute.INT && kind == Tuple.INT_SLOT) {
+            buf.putInt(tuple.getInt(col));
+        } else if (types[col] == Attribute.REAL && kind == Tuple.REAL_SLOT) {
+            buf.putFloat(tuple.getFloat(col));
+        } else {
+            encodeColumn(col, tuple.dataAt(col), buf);
+        }
+    }
+
+    /** Writes one value of the given attribute at the current position of the buffer **/
+    public void encodeColumn(int col, Object value, ByteBuffer buf) throws IOException {
+        if (dict != null && types[col] == Attribute.STRING) {
+            buf.putInt(dict.encode(value.toString()));
+        } else {
+            encodeValue(types[col], widths[col], value, buf);
+        }
+    }
+
+    /** Reads one value of the given attribute stored at an absolute position **/
+    public Object decodeColumn(int col, ByteBuffer buf, int pos) {
+        if (dict != null && types[col] == Attribute.STRING) {
+            return dict.decode(buf.getInt(pos));
+        }
+        return decodeValue(types[col], buf, pos);
+    }
+
+    /** Writes one value of the given type into a slot of the given width **/
+    public static void encodeValue(int type, int width, Object value, ByteBuffer buf) throws IOException {
+        if (type == Attribute.INT) {
+            buf.putInt((Integer) value);
+        } else if (type == Attribute.REAL) {
+            buf.putFloat((Float) value);
+        } else if (type == Attribute.STRING) {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length + 2 > width) {
+                throw new IOException("PageLayout: value " + value + " does not fit in " + width + " bytes");
+            }
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+        } else {
+            throw new IOException("PageLayout: unknown attribute type " + type);
+        }
+    }
+
+    /** Reads one value of the given type stored at an absolute position **/
+    public static Object decodeValue(int type, ByteBuffer buf, int pos) {
+        if (type == Attribute.INT) {
+            return buf.getInt(pos);
+        } else if (type == Attribute.REAL) {
+            return buf.getFloat(pos);
+        } else {
+            int len = buf.getShort(pos);
+            if (buf.hasArray()) {
+                return new String(buf.array(), buf.arrayOffset() + pos + 2, len, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[len];
+            buf.get(pos + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
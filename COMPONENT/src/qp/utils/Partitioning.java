@@ -0,0 +1,194 @@
+/**
+ * How a base table is split into partition files
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * A partitioned table is stored as one page file per partition, named
+ * <tablename>.p<i>.tbl, instead of a single <tablename>.tbl. Each row goes
+ * to the partition of the value of one attribute, either by the hash of
+ * the value or by the range of values it falls in. The Partitioning is kept
+ * in the Schema of the table, i.e. in its .md file.
+ * With RANGE partitioning on bounds b0 < b1 < ... < b(n-2), partition 0
+ * holds the values below b0, partition i the values from b(i-1) up to but
+ * excluding b(i), and the last partition the values from b(n-2) on.
+ */
+public class Partitioning implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int HASH = 0;
+    public static final int RANGE = 1;
+
+    int method;            // HASH or RANGE
+    Attribute attr;        // Attribute the rows are partitioned on
+    int numPartitions;     // Number of partitions
+    Object[] bounds;       // RANGE only: lower bounds of partitions 1 .. n-1, ascending
+
+    private Partitioning(int method, Attribute attr, int numPartitions, Object[] bounds) {
+        this.method = method;
+        this.attr = attr;
+        this.numPartitions = numPartitions;
+        this.bounds = bounds;
+    }
+
+    public static Partitioning hash(Attribute attr, int numPartitions) {
+        return new Partitioning(HASH, attr, numPartitions, null);
+    }
+
+    /** The bounds must be ascending, and of the type of the attribute **/
+    public static Partitioning range(Attribute attr, Object[] bounds) {
+        return new Partitioning(RANGE, attr, bounds.length + 1, bounds);
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public Attribute getAttribute() {
+        return attr;
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /** Name of the page file of the given partition of the table **/
+    public static String fileName(String tabname, int partition) {
+        return tabname + ".p" + partition + ".tbl";
+    }
+
+    /**
+     * Partition of the row with the given value of the partitioning attribute.
+     * A DictString hashes as its String, so dictionary encoding does not move rows
+     **/
+    public int partitionOf(Object value) {
+        if (method == HASH) {
+            return Math.floorMod(value.hashCode(), numPartitions);
+        }
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {  // Number of bounds that are <= value
+            int mid = (lo + hi) >>> 1;
+            if (compare(value, bounds[mid]) >= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Partitions that may hold rows satisfying  attr exprtype constant,
+     * e.g. Condition.LESSTHAN. Hash partitioning only narrows down equality
+     **/
+    public BitSet candidates(int exprtype, Object constant) {
+        BitSet parts = new BitSet(numPartitions);
+        int p = partitionOf(constant);
+        if (exprtype == Condition.EQUAL) {
+            parts.set(p);
+        } else if (method == HASH || exprtype == Condition.NOTEQUAL) {
+            parts.set(0, numPartitions);
+        } else if (exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE) {
+            parts.set(0, p + 1);
+        } else if (exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE) {
+            parts.set(p, numPartitions);
+        } else {
+            parts.set(0, numPartitions);
+        }
+        return parts;
+    }
+
+    /**
+     * Whether rows of this table and of the other with equal values of the
+     * partitioning attributes always land in partitions of the same number
+     **/
+    public boolean isCompatible(Partitioning other) {
+        if (other == null || method != other.method || numPartitions != other.numPartitions) {
+            return false;
+        }
+        if (method == HASH) return true;
+        for (int i = 0; i < bounds.length; ++i) {
+            if (!bounds[i].equals(other.bounds[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts the constant to the type of the attribute, as Select does.
+     * Returns null if it is not a value of that type
+     **/
+    public static Object parseValue(int type, String value) {
+        try {
+            if (type == Attribute.INT) {
+                return Integer.parseInt(value);
+            } else if (type == Attribute.REAL) {
+                return Float.parseFloat(value);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Partitioning as given to ConvertTxtToTbl and BulkLoad: -hash <attribute> <n>
+     * or -range <attribute> <bound>,<bound>,... Returns null if not valid
+     **/
+    public static Partitioning parse(Schema schema, String method, String column, String arg) {
+        Attribute attr = null;
+        for (Attribute a : schema.getAttList()) {
+            if (a.getColName().equals(column) || a.toString().equals(column)) {
+                attr = a;
+            }
+        }
+        if (attr == null) {
+            System.out.println("Partitioning: no attribute " + column);
+            return null;
+        }
+        if (method.equals("-hash")) {
+            int n;
+            try {
+                n = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                n = 0;
+            }
+            if (n < 1) {
+                System.out.println("Partitioning: invalid number of partitions " + arg);
+                return null;
+            }
+            return hash(attr, n);
+        }
+        String[] values = arg.split(",");
+        Object[] bounds = new Object[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bounds[i] = parseValue(attr.getType(), values[i]);
+            if (bounds[i] == null || (i > 0 && compare(bounds[i - 1], bounds[i]) >= 0)) {
+                System.out.println("Partitioning: range bounds must be ascending values of " + attr);
+                return null;
+            }
+        }
+        return range(attr, bounds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object left, Object right) {
+        return ((Comparable<Object>) left).compareTo(right);
+    }
+
+    public String toString() {
+        if (method == HASH) {
+            return "HASH(" + attr + ", " + numPartitions + ")";
+        }
+        StringBuilder sb = new StringBuilder("RANGE(" + attr);
+        for (Object bound : bounds) {
+            sb.append(", ").append(bound);
+        }
+        return sb.append(")").toString();
+    }
+}
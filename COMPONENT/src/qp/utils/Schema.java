@@ -8,8 +8,12 @@ import java.io.Serializable;
 import java.util.ArrayList;
 
 public class Schema implements Serializable {
+
+    private static final long serialVersionUID = 2779193728130899404L;  // Unchanged, so existing .md files can still be read
+
     ArrayList<Attribute> attset;  // The attributes belong to this schema
     int tupleSize;                // Number of bytes required for this tuple (size of record)
+    Partitioning partitioning;    // How the base table is split into partition files (null: not partitioned)
 
     public Schema(ArrayList<Attribute> colset) {
         attset = new ArrayList<>();
@@ -26,6 +30,14 @@ public class Schema implements Serializable {
         return tupleSize;
     }
 
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public void setPartitioning(Partitioning partitioning) {
+        this.partitioning = partitioning;
+    }
+
     public int getNumCols() {
         return attset.size();
     }
@@ -133,6 +145,7 @@ public class Schema implements Serializable {
         }
         Schema newSchema = new Schema(newVector);
         newSchema.setTupleSize(tupleSize);
+        newSchema.setPartitioning(partitioning);
         return newSchema;
     }
 
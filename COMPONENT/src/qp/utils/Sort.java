@@ -2,12 +2,17 @@ package qp.utils;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import qp.operators.Operator;
 import qp.operators.OrderByComparator;
 import qp.operators.OrderType;
 
 public class Sort {
+    static boolean replacementSelection = false;               // Whether the first sorted runs are made by replacement selection
+    static int threads = 1;                                    // Number of threads sorting and merging the runs
+    static ExecutorService pool;                               // Threads sorting and merging the runs, if more than one
+
     private int numBuff;
     private Operator base;
     private ArrayList<File> sortedRuns = new ArrayList<>();    // The sorted runs in the current run number
@@ -15,6 +20,8 @@ public class Sort {
     private int runNum = 0;                                    // The current run number
     private OrderByComparator comparator;                      // Comparator to know the ordering that the tuples should be sorted
     private boolean isDistinct = false;                        // Whether it is an distinct keyword or just a orderby/sort merge
+    private BloomFilter keys;                                  // Gets the hash values of the tuples read, if not null
+    private ArrayList<Integer> keyIndex;                       // Indices of the attributes hashed for keys
 
     // Sort constructor for distinct and sort merge join
     public Sort(Operator base, int numBuff, int batchsize, boolean isDistinct) {
@@ -33,12 +40,75 @@ public class Sort {
         this.batchsize = batchsize;
     }
     
-    // Perform the sorting and output an ObjectInputStream
-    public ObjectInputStream performSort() {
-        generateSortedRuns();
+    public static void setReplacementSelection(boolean flag) {
+        replacementSelection = flag;
+    }
+
+    public static boolean isReplacementSelection() {
+        return replacementSelection;
+    }
+
+    /** Number of threads used to sort and merge the runs, 1 to do it all in the calling thread **/
+    public static synchronized void setThreads(int n) {
+        threads = Math.max(1, n);
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static int getThreads() {
+        return threads;
+    }
+
+    // Helper method to get the thread pool of the sorts, null if they use one thread
+    private static synchronized ExecutorService getPool() {
+        if (threads > 1 && pool == null) {
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    // Helper method to get the number of loads sorted, or groups of runs merged, at the same
+    // time: the buffers of the sort are split between them, with at least 3 buffers each
+    private int numTasks() {
+        return Math.max(1, Math.min(threads, numBuff / 3));
+    }
+
+    // Helper method to wait for a sorted run made by the thread pool
+    private static File waitFor(Future<File> sortedRun) {
+        try {
+            return sortedRun.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Sort: error while sorting the runs " + e);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the hash value of the attributes at the index of every tuple read
+     * to keys, e.g. the runtime filter of a join (see Tuple.hashSlots)
+     **/
+    public void setKeys(BloomFilter keys, ArrayList<Integer> index) {
+        this.keys = keys;
+        this.keyIndex = index;
+    }
+
+    // Perform the sorting and output a TupleInputStream
+    public TupleInputStream performSort() {
+        if (replacementSelection) {
+            generateSortedRunsByReplacement();
+        } else {
+            generateSortedRuns();
+        }
+        if (sortedRuns.isEmpty()) {
+            /** Empty input, e.g. all of it dropped by a runtime filter **/
+            sortedRuns.add(writeSortedRun(new KeyedTuple[0]));
+        }
         performMerge();
         try {
-            return new ObjectInputStream(new FileInputStream(sortedRuns.get(0)));
+            return TempFile.openInput(sortedRuns.get(0), base.getSchema());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -50,59 +120,95 @@ public class Sort {
      * Optimise the number of I/Os by reducing number of runs and using the maximum number of
      * files to merge with the given buffers.
      * Outputs temperary files for that run.
+     * With more than one sort thread, the buffers are split between the groups of files
+     * that the thread pool merges at the same time. This is only done for a pass when the
+     * smaller groups do not take more merge passes than using all the buffers for each group.
      **/
     private void performMerge() {
-        int noOfSortedRuns = sortedRuns.size();
-        int noOfMergePasses = (int) Math.ceil(Math.log(noOfSortedRuns) / Math.log(numBuff - 1));
-        for (int i = 0; i < noOfMergePasses; i++) {
-            noOfSortedRuns = sortedRuns.size();
+        int tasks = numTasks();
+        while (sortedRuns.size() > 1) {
+            int noOfSortedRuns = sortedRuns.size();
             runNum += 1;
             ArrayList<File> newSortedRuns = new ArrayList<>();
 
+            int buffers = numBuff;                                  // Buffers of each group of files
+            ExecutorService pool = null;
+            if (tasks > 1 && numMergePasses(noOfSortedRuns, numBuff / tasks - 1) <= numMergePasses(noOfSortedRuns, numBuff - 1)) {
+                buffers = numBuff / tasks;
+                pool = getPool();
+            }
+            ArrayList<Future<File>> mergingRuns = new ArrayList<>();
             int idx = 0;
             while(idx < noOfSortedRuns) {
-                int end = (idx + numBuff - 1) - 1 >= noOfSortedRuns ? noOfSortedRuns - 1 : (idx + numBuff - 1) - 1;
-                File mergedSortedRun = mergeSortedRuns(idx, end);
-                newSortedRuns.add(mergedSortedRun);
+                int end = Math.min(idx + buffers - 1, noOfSortedRuns) - 1;
+                if (pool == null) {
+                    File mergedSortedRun = mergeSortedRuns(idx, end, buffers);
+                    newSortedRuns.add(mergedSortedRun);
+                } else {
+                    if (mergingRuns.size() >= tasks) {
+                        /** At most tasks groups hold buffers at any time **/
+                        waitFor(mergingRuns.get(mergingRuns.size() - tasks));
+                    }
+                    int first = idx;
+                    int groupBuffers = buffers;
+                    mergingRuns.add(pool.submit(() -> mergeSortedRuns(first, end, groupBuffers)));
+                }
                 idx = end + 1;
             }
+            for (Future<File> merging : mergingRuns) {
+                newSortedRuns.add(waitFor(merging));
+            }
             sortedRuns = newSortedRuns;
         }
     }
 
+    // Helper method to get the number of merge passes needed for the number of files,
+    // merging up to fanIn files at a time
+    private static int numMergePasses(int numFiles, int fanIn) {
+        int passes = 0;
+        while (numFiles > 1) {
+            numFiles = (numFiles + fanIn - 1) / fanIn;
+            passes++;
+        }
+        return passes;
+    }
+
     /**
-     * Merge files from the index start to end inclusive.
+     * Merge files from the index start to end inclusive, with the given number of buffers.
      * Simulate buffers for each of the files and populate buffers with tuples from the file.
-     * Get the first tuple of each file and check which should be output first 
-     * by using the comparator.
-     * After that, add another tuple from the file that just been output.
+     * The first tuple of each file is kept in a loser tree (tournament tree), whose root
+     * is the file whose tuple should be output first by comparing their sort keys.
+     * After that, the next tuple of the file that just been output replays its way up
+     * the tree, which takes log2 of the number of files comparisons per tuple.
+     * If this is DISTINCT, a tuple equal to the one just output is not output again.
      * Repeat until no more tuples from the files.
      **/
-    private File mergeSortedRuns(int start, int end) {
+    private File mergeSortedRuns(int start, int end, int buffers) {
         int numOfSortedRuns = end - start + 1;
-        int numBuffersPerSortedRun = (numBuff - 1) / numOfSortedRuns;
+        int numBuffersPerSortedRun = (buffers - 1) / numOfSortedRuns;
         int numTuplesPerSortedRun = numBuffersPerSortedRun * batchsize;
         if (numOfSortedRuns == 1) {
             return sortedRuns.get(start);
         }
 
-        ArrayList<ArrayList<Tuple>> sortedRunsForThisRound = new ArrayList<ArrayList<Tuple>>(numOfSortedRuns);
+        ArrayList<ArrayList<KeyedTuple>> sortedRunsForThisRound = new ArrayList<ArrayList<KeyedTuple>>(numOfSortedRuns);
         for (int i = 0; i < numOfSortedRuns; i++) {
-            sortedRunsForThisRound.add(new ArrayList<Tuple>());
+            sortedRunsForThisRound.add(new ArrayList<KeyedTuple>());
         }
+        int[] nextInBuffer = new int[numOfSortedRuns];            // Position of the next tuple in the buffers of each file
         Boolean[] trackToStopForEachSortedRun = new Boolean[numOfSortedRuns];
-        ArrayList<ObjectInputStream> streams = new ArrayList<>();
+        ArrayList<TupleInputStream> streams = new ArrayList<>();
 
         for (int i = start; i < numOfSortedRuns + start; i++) {
             File run = sortedRuns.get(i);
-            ObjectInputStream ois = null;
+            TupleInputStream ois = null;
             trackToStopForEachSortedRun[i - start] = false;
             try {
-                ois = new ObjectInputStream(new FileInputStream(run));
+                ois = TempFile.openInput(run, base.getSchema());
                 streams.add(ois);
                 sortedRunsForThisRound.set(i - start,
                         fillBuffers(ois, i - start, numTuplesPerSortedRun, trackToStopForEachSortedRun));
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
@@ -110,73 +216,78 @@ public class Sort {
         Tuple[] tuplesInRun = new Tuple[batchsize];
         int added = 0;
 
-        ArrayList<Tuple> topOfAllSortedRuns = new ArrayList<>();
-        ArrayList<Integer> trackOrderOfFirsts = new ArrayList<>();
+        KeyedTuple[] topOfAllSortedRuns = new KeyedTuple[numOfSortedRuns];   // First tuple of each file, null once it is done
         for (int i = 0; i < numOfSortedRuns; i++) {
-            topOfAllSortedRuns = insertInSortedOrder(topOfAllSortedRuns, trackOrderOfFirsts, i,
-                    sortedRunsForThisRound.get(i).get(0));
-            sortedRunsForThisRound.get(i).remove(0);
+            topOfAllSortedRuns[i] = nextOfSortedRun(sortedRunsForThisRound, nextInBuffer, i);
+        }
+        int[] losers = new int[numOfSortedRuns];   // Loser of the match at each node of the tree, the winner at 0
+        Arrays.fill(losers, -1);
+        for (int i = numOfSortedRuns - 1; i >= 0; i--) {
+            replay(losers, topOfAllSortedRuns, i);
         }
 
         File sortedRun = null;
-        ObjectOutputStream fileWriter = null;
+        TupleOutputStream fileWriter = null;
         try {
             sortedRun = File.createTempFile(runNum + "-temp", null, new File("./"));
             sortedRun.deleteOnExit();
-            fileWriter = new ObjectOutputStream(new FileOutputStream(sortedRun));
+            fileWriter = TempFile.openOutput(sortedRun, base.getSchema());
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        KeyedTuple lastOutput = null;
         while (true) {
-            if (topOfAllSortedRuns.size() == 0) {
+            int whichSortedRun = losers[0];
+            KeyedTuple first = topOfAllSortedRuns[whichSortedRun];
+            if (first == null) {
                 break;
             }
-            Tuple first = topOfAllSortedRuns.get(0);
-            int whichSortedRun = trackOrderOfFirsts.get(0);
-            topOfAllSortedRuns.remove(0);
-            trackOrderOfFirsts.remove(0);
-
-            if (added == batchsize) {
-                try {
-                    for (int j = 0; j < batchsize; j++) {
-                        fileWriter.writeObject(tuplesInRun[j]);
+
+            if (!isDistinct || lastOutput == null || !lastOutput.sameKey(first)) {
+                if (added == batchsize) {
+                    try {
+                        for (int j = 0; j < batchsize; j++) {
+                            fileWriter.writeTuple(tuplesInRun[j]);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    added = 0;
                 }
-                tuplesInRun = new Tuple[batchsize];
-                added = 0;
+                tuplesInRun[added] = first.getTuple();
+                added += 1;
+                lastOutput = first;
             }
-            tuplesInRun[added] = first;
-            added += 1;
-            if (sortedRunsForThisRound.get(whichSortedRun).size() == 0) {
+
+            if (nextInBuffer[whichSortedRun] == sortedRunsForThisRound.get(whichSortedRun).size()) {
                 if (!trackToStopForEachSortedRun[whichSortedRun]) {
                     try {
                         sortedRunsForThisRound.set(whichSortedRun, fillBuffers(streams.get(whichSortedRun),
                                 whichSortedRun, numTuplesPerSortedRun, trackToStopForEachSortedRun));
-                    } catch (ClassNotFoundException | IOException e) {
+                        nextInBuffer[whichSortedRun] = 0;
+                    } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
             }
-            if (sortedRunsForThisRound.get(whichSortedRun).size() > 0) {
-                topOfAllSortedRuns = insertInSortedOrder(topOfAllSortedRuns, trackOrderOfFirsts, whichSortedRun,
-                        sortedRunsForThisRound.get(whichSortedRun).get(0));
-                sortedRunsForThisRound.get(whichSortedRun).remove(0);
-            }
+            topOfAllSortedRuns[whichSortedRun] = nextOfSortedRun(sortedRunsForThisRound, nextInBuffer, whichSortedRun);
+            replay(losers, topOfAllSortedRuns, whichSortedRun);
         }
         if (added > 0) {
             try {
                 for (int j = 0; j < added; j++) {
-                    fileWriter.writeObject(tuplesInRun[j]);
+                    fileWriter.writeTuple(tuplesInRun[j]);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
         try {
-            fileWriter.writeObject(null);
+            fileWriter.close();
+            for (TupleInputStream stream : streams) {
+                stream.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -184,129 +295,262 @@ public class Sort {
     }
 
     /**
-     * Fill buffers with tuples from the file.
+     * Fill buffers with tuples from the file, with their sort keys.
      **/
-    private ArrayList<Tuple> fillBuffers(ObjectInputStream ois, int fileNo, int noToFill,
-            Boolean[] trackToStopForEachSortedRun) throws FileNotFoundException, IOException, ClassNotFoundException {
-        ArrayList<Tuple> filledBuffers = new ArrayList<>();
+    private ArrayList<KeyedTuple> fillBuffers(TupleInputStream ois, int fileNo, int noToFill,
+            Boolean[] trackToStopForEachSortedRun) throws IOException {
+        ArrayList<KeyedTuple> filledBuffers = new ArrayList<>();
         for (int j = 0; j < noToFill; j++) {
-            Object inStream = ois.readObject();
+            Tuple inStream = ois.readTuple();
             if (inStream == null) {
                 trackToStopForEachSortedRun[fileNo] = true;
                 break;
             } else {
-                filledBuffers.add((Tuple) inStream);
+                filledBuffers.add(new KeyedTuple(comparator.keyOf(inStream), inStream));
             }
         }
         return filledBuffers;
     }
 
+    // Helper method to take the next tuple from the buffers of a file, null if they are empty
+    private KeyedTuple nextOfSortedRun(ArrayList<ArrayList<KeyedTuple>> buffers, int[] nextInBuffer, int fileNo) {
+        ArrayList<KeyedTuple> buffer = buffers.get(fileNo);
+        if (nextInBuffer[fileNo] == buffer.size()) {
+            return null;
+        }
+        KeyedTuple next = buffer.get(nextInBuffer[fileNo]);
+        buffer.set(nextInBuffer[fileNo], null);
+        nextInBuffer[fileNo] += 1;
+        return next;
+    }
+
     /**
-     * Insert tuples into sorted order according to the comparator.
-     * If this is DISTINCT, tuple will not be inserted if the two tuples are equal.
+     * Play the matches of the loser tree from the leaf of the given file up to the root
+     * after its first tuple changed. Node n of the tree has nodes 2n and 2n + 1 below it, and
+     * file i is the leaf at position number of files + i. Each node keeps the file that lost
+     * the match there and the winner moves up, so the overall winner ends at node 0.
+     * While the tree is being built, -1 stands for a file that wins against every other.
      **/
-    private ArrayList<Tuple> insertInSortedOrder(ArrayList<Tuple> tupleList, ArrayList<Integer> sortedOrder,
-            int fromWhichSortedRun, Tuple toInsert) {
-        if (tupleList.size() == 0) {
-            tupleList.add(toInsert);
-            sortedOrder.add(fromWhichSortedRun);
-        } else {
-            boolean inserted = false;
-            for (int i = 0; i < tupleList.size(); i++) {
-                if (isDistinct && comparator.compare(tupleList.get(i), toInsert) == 0) {
-                    inserted = true;
-                    break;
-                } else if (comparator.compare(tupleList.get(i), toInsert) > 0) {
-                    tupleList.add(i, toInsert);
-                    sortedOrder.add(i, fromWhichSortedRun);
-                    inserted = true;
-                    break;
-                }
-            }
-            if (!inserted) {
-                tupleList.add(toInsert);
-                sortedOrder.add(fromWhichSortedRun);
+    private void replay(int[] losers, KeyedTuple[] heads, int fileNo) {
+        int winner = fileNo;
+        for (int node = (fileNo + losers.length) / 2; node > 0; node /= 2) {
+            if (beats(losers[node], winner, heads)) {
+                int loser = winner;
+                winner = losers[node];
+                losers[node] = loser;
             }
         }
-        return tupleList;
+        losers[0] = winner;
+    }
+
+    // Helper method to check whether the first tuple of file a comes before that of file b,
+    // files that are done come last and ties go to the earlier file
+    private boolean beats(int a, int b, KeyedTuple[] heads) {
+        if (a == -1 || b == -1) {
+            return a == -1;
+        }
+        if (heads[a] == null || heads[b] == null) {
+            return heads[b] == null && (heads[a] != null || a < b);
+        }
+        int comparison = heads[a].compareTo(heads[b]);
+        return comparison < 0 || (comparison == 0 && a < b);
     }
 
     /**
      * Uses (total buffers - 1) buffers to create the first sorted runs.
-     * Buffers are populated with tuples and sorted accorded to the comparator.
+     * Buffers are populated with tuples and sorted on their sort keys.
      * If this is DISTINCT, the duplicate tuples will be removed.
+     * With more than one sort thread, the buffers are split into loads, and a full load is
+     * sorted and written by the thread pool while the next load is read into other buffers.
      **/
     private void generateSortedRuns() {
-        int totalTuplesInBuffs = batchsize * numBuff;
-        Tuple[] tuplesInRun = new Tuple[totalTuplesInBuffs];
+        int tasks = numTasks();
+        int totalTuplesInBuffs = batchsize * (numBuff / tasks);
+        KeyedTuple[] tuplesInRun = new KeyedTuple[totalTuplesInBuffs];
         int added = 0;
+        ExecutorService pool = tasks > 1 ? getPool() : null;
+        ArrayDeque<Future<File>> sortingRuns = new ArrayDeque<>();   // Loads being sorted by the pool, oldest first
         Batch inbatch = base.next();
 
-        File sortedRun = null;
-        ObjectOutputStream fileWriter = null;
         while (inbatch != null) {
             for (int i = 0; i < inbatch.size(); i++) {
                 Tuple tuple = inbatch.get(i);
                 if (added == totalTuplesInBuffs) {
-                    if (isDistinct) {
-                        tuplesInRun = removeDuplicates(tuplesInRun);
+                    if (pool == null) {
+                        sortedRuns.add(writeSortedRun(tuplesInRun));
                     } else {
-                        Arrays.sort(tuplesInRun, comparator);
-                    }
-                    try {
-                        sortedRun = File.createTempFile(runNum + "-temp", null, new File("./"));
-                        sortedRun.deleteOnExit();
-                        fileWriter = new ObjectOutputStream(new FileOutputStream(sortedRun));
-                        for (int j = 0; j < tuplesInRun.length; j++) {
-                            fileWriter.writeObject(tuplesInRun[j]);
+                        if (sortingRuns.size() == tasks - 1) {
+                            sortedRuns.add(waitFor(sortingRuns.poll()));
                         }
-                        fileWriter.writeObject(null);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return;
+                        KeyedTuple[] toSort = tuplesInRun;
+                        sortingRuns.add(pool.submit(() -> writeSortedRun(toSort)));
                     }
-                    sortedRuns.add(sortedRun);
-                    tuplesInRun = new Tuple[totalTuplesInBuffs];
+                    tuplesInRun = new KeyedTuple[totalTuplesInBuffs];
                     added = 0;
                 }
-                tuplesInRun[added] = tuple;
+                tuplesInRun[added] = new KeyedTuple(comparator.keyOf(tuple), tuple);
                 added += 1;
+                if (keys != null) {
+                    keys.add(Tuple.hashSlots(tuple, keyIndex));
+                }
             }
+            base.release(inbatch);
             inbatch = base.next();
         }
 
+        while (!sortingRuns.isEmpty()) {
+            sortedRuns.add(waitFor(sortingRuns.poll()));
+        }
         if (added > 0) {
-            tuplesInRun = Arrays.copyOfRange(tuplesInRun, 0, added);
-            if (isDistinct) {
-                tuplesInRun = removeDuplicates(tuplesInRun);
-            } else {
-                Arrays.sort(tuplesInRun, comparator);
+            sortedRuns.add(writeSortedRun(Arrays.copyOfRange(tuplesInRun, 0, added)));
+        }
+    }
+
+    // Helper method to sort one load of the buffers and write it as a sorted run
+    private File writeSortedRun(KeyedTuple[] tuplesInRun) {
+        Arrays.sort(tuplesInRun);
+        if (isDistinct) {
+            tuplesInRun = removeDuplicates(tuplesInRun);
+        }
+        File sortedRun = null;
+        try {
+            sortedRun = File.createTempFile(runNum + "-temp", null, new File("./"));
+            sortedRun.deleteOnExit();
+            TupleOutputStream fileWriter = TempFile.openOutput(sortedRun, base.getSchema());
+            for (int j = 0; j < tuplesInRun.length; j++) {
+                fileWriter.writeTuple(tuplesInRun[j].getTuple());
             }
-            try {
-                sortedRun = File.createTempFile(runNum + "-temp", null, new File("./"));
-                sortedRun.deleteOnExit();
-                fileWriter = new ObjectOutputStream(new FileOutputStream(sortedRun));
-                for (int j = 0; j < tuplesInRun.length; j++) {
-                    fileWriter.writeObject(tuplesInRun[j]);
+            fileWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return sortedRun;
+    }
+
+    /**
+     * Uses the same buffers to create the first sorted runs by replacement selection.
+     * The buffers hold a heap of tuples ordered on the run they go to, then on their sort keys.
+     * The first tuple of the heap is written to its run and replaced by the next input tuple,
+     * which goes to the same run if it does not come before the tuple just written and to the
+     * next run otherwise. On random input the runs are about twice as long as the buffers,
+     * and input that is already sorted ends up in a single run.
+     * If this is DISTINCT, a tuple equal to the one just written to the run is not written.
+     **/
+    private void generateSortedRunsByReplacement() {
+        int totalTuplesInBuffs = batchsize * numBuff;
+        KeyedTuple[] heap = new KeyedTuple[totalTuplesInBuffs];
+        int[] runOfHeap = new int[totalTuplesInBuffs];            // Run that each tuple of the heap goes to
+        int inHeap = 0;
+        Batch inbatch = base.next();
+        int inbatchIdx = 0;
+
+        while (inbatch != null && inHeap < totalTuplesInBuffs) {
+            if (inbatchIdx == inbatch.size()) {
+                base.release(inbatch);
+                inbatch = base.next();
+                inbatchIdx = 0;
+                continue;
+            }
+            Tuple tuple = inbatch.get(inbatchIdx++);
+            heap[inHeap] = new KeyedTuple(comparator.keyOf(tuple), tuple);
+            inHeap += 1;
+            if (keys != null) {
+                keys.add(Tuple.hashSlots(tuple, keyIndex));
+            }
+        }
+        for (int i = inHeap / 2 - 1; i >= 0; i--) {
+            siftDown(heap, runOfHeap, inHeap, i);
+        }
+
+        int currentRun = -1;
+        KeyedTuple lastWritten = null;
+        TupleOutputStream fileWriter = null;
+        try {
+            while (inHeap > 0) {
+                KeyedTuple first = heap[0];
+                int run = runOfHeap[0];
+                if (run != currentRun) {
+                    if (fileWriter != null) {
+                        fileWriter.close();
+                    }
+                    File sortedRun = File.createTempFile(runNum + "-temp", null, new File("./"));
+                    sortedRun.deleteOnExit();
+                    fileWriter = TempFile.openOutput(sortedRun, base.getSchema());
+                    sortedRuns.add(sortedRun);
+                    currentRun = run;
+                    lastWritten = null;
                 }
-                fileWriter.writeObject(null);
-                sortedRuns.add(sortedRun);
-            } catch (IOException e) {
-                e.printStackTrace();
+                if (!isDistinct || lastWritten == null || !lastWritten.sameKey(first)) {
+                    fileWriter.writeTuple(first.getTuple());
+                    lastWritten = first;
+                }
+
+                while (inbatch != null && inbatchIdx == inbatch.size()) {
+                    base.release(inbatch);
+                    inbatch = base.next();
+                    inbatchIdx = 0;
+                }
+                if (inbatch != null) {
+                    Tuple tuple = inbatch.get(inbatchIdx++);
+                    if (keys != null) {
+                        keys.add(Tuple.hashSlots(tuple, keyIndex));
+                    }
+                    KeyedTuple next = new KeyedTuple(comparator.keyOf(tuple), tuple);
+                    heap[0] = next;
+                    runOfHeap[0] = next.compareTo(first) < 0 ? run + 1 : run;
+                } else {
+                    inHeap -= 1;
+                    heap[0] = heap[inHeap];
+                    runOfHeap[0] = runOfHeap[inHeap];
+                    heap[inHeap] = null;
+                }
+                siftDown(heap, runOfHeap, inHeap, 0);
             }
+            if (fileWriter != null) {
+                fileWriter.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    // Remove duplicates for DISTINCT
-    private Tuple[] removeDuplicates(Tuple[] toRemove) {
-        Set<Tuple> sortedAndMerged = new TreeSet<Tuple>(comparator);
-        for (int i = 0; i < toRemove.length; i++) {
-            sortedAndMerged.add(toRemove[i]);
+    // Helper method to move the tuple at position i of the heap down to its place
+    private void siftDown(KeyedTuple[] heap, int[] runOfHeap, int size, int i) {
+        KeyedTuple tuple = heap[i];
+        int run = runOfHeap[i];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && comesBefore(heap[child + 1], runOfHeap[child + 1], heap[child], runOfHeap[child])) {
+                child += 1;
+            }
+            if (!comesBefore(heap[child], runOfHeap[child], tuple, run)) {
+                break;
+            }
+            heap[i] = heap[child];
+            runOfHeap[i] = runOfHeap[child];
+            i = child;
         }
+        heap[i] = tuple;
+        runOfHeap[i] = run;
+    }
+
+    // Helper method to order the tuples of the heap on their run, then on their sort keys
+    private boolean comesBefore(KeyedTuple a, int runOfA, KeyedTuple b, int runOfB) {
+        if (runOfA != runOfB) {
+            return runOfA < runOfB;
+        }
+        return a.compareTo(b) < 0;
+    }
 
-        Tuple[] output = new Tuple[sortedAndMerged.size()];
-        sortedAndMerged.toArray(output);
-        return output;
+    // Remove duplicates for DISTINCT, the tuples are sorted so equal ones are adjacent
+    private KeyedTuple[] removeDuplicates(KeyedTuple[] toRemove) {
+        int kept = 0;
+        for (int i = 0; i < toRemove.length; i++) {
+            if (kept == 0 || !toRemove[kept - 1].sameKey(toRemove[i])) {
+                toRemove[kept++] = toRemove[i];
+            }
+        }
+        return Arrays.copyOf(toRemove, kept);
     }
 
 }
@@ -0,0 +1,67 @@
+/**
+ * Dictionary of the STRING values of a base table
+ **/
+
+package qp.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Every distinct STRING value of a table is given an int code, in the order
+ * the values are first added. The table pages then store the 4 byte code
+ * instead of the string, and the scanned tuples carry the DictString of the
+ * code, shared by all the rows holding the same value.
+ * The codes are not ordered like the strings, so only equality can be
+ * decided from the codes alone.
+ */
+public class StringDictionary {
+
+    ArrayList<DictString> values = new ArrayList<>();  // Value of each code
+    HashMap<String, Integer> codes = new HashMap<>();   // Code of each value
+
+    /** Returns the code of the value, adding it to the dictionary if needed **/
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(new DictString(this, code, value));
+        }
+        return code;
+    }
+
+    /** Returns the code of the value, or -1 if it is not in the dictionary **/
+    public int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    public DictString decode(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /** Writes the number of values followed by the values in code order **/
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(values.size());
+        for (DictString value : values) {
+            out.writeUTF(value.toString());
+        }
+    }
+
+    public static StringDictionary read(DataInput in) throws IOException {
+        StringDictionary dict = new StringDictionary();
+        int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            dict.encode(in.readUTF());
+        }
+        return dict;
+    }
+}
@@ -0,0 +1,493 @@
+/**
+ * TableReader reads the tuples of a base table from a page file written by TableWriter
+ */
+
+package qp.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class TableReader {
+
+    final String filename;    // Filename to read from
+    final Schema schema;      // Schema of the table
+    final boolean mapped;     // Whether the file is memory-mapped instead of read page by page
+    boolean mapping;          // Whether this file is read through the mapping, compressed files are not
+    boolean[] required;       // Attributes that are decoded, the others are left null (null: all)
+    ArrayList<Integer> filterCols = new ArrayList<>();   // Attribute of each filter
+    ArrayList<Integer> filterOps = new ArrayList<>();    // Comparison of each filter, e.g. Condition.EQUAL
+    ArrayList<Object> filterValues = new ArrayList<>();  // Constant of each filter
+
+    int pagesize;             // Number of bytes per page of this file
+    long numTuples;           // Number of tuples in the table
+    int numPages;             // Number of data pages in the table
+    int pagelayout;           // TableWriter.ROW_LAYOUT or TableWriter.COLUMN_LAYOUT
+    int numGroups;            // Number of groups of rows, each with its zone map
+    int rowsPerGroup;         // COLUMN_LAYOUT: number of rows per group, the last may have fewer
+    int[] valuesPerPage;      // COLUMN_LAYOUT: number of values per page of each attribute
+    int[][] columnPages;      // COLUMN_LAYOUT: file page numbers of the pages of each attribute, in row order
+    int[] pageNums;           // COLUMN_LAYOUT: page of each attribute currently buffered, -1 if none
+    PageLayout layout;        // Slot layout of the rows
+    int zoneMapPage;          // First page of the zone maps (0: the file has none)
+    int dictPage;             // First page of the STRING dictionary (0: not dictionary encoded)
+    int indexPage;            // First page of the page offsets (0: the data pages are not compressed)
+    int columnMapPage;        // First page of the attribute of each data page (COLUMN_LAYOUT only)
+    long[] pageOffsets;       // File offset of each compressed data page, and of the end of the last
+    byte[] compressed;        // Compressed bytes of the page being read
+    int zoneSize;             // Number of bytes of a zone map
+    ByteBuffer zones;         // Buffered zone maps
+    int zoneFirst;            // Group of the first buffered zone map
+    int zonesInBuf;           // Number of buffered zone maps
+    int numSkipped = 0;       // Number of groups skipped with the zone maps
+
+    ByteBuffer[] pages;       // Currently buffered page (or mapped segment holding it), per attribute for COLUMN_LAYOUT
+    int[] pageBase;           // Offset of the current page within pages
+    MappedByteBuffer[] segments;  // Mapped regions of the file, each below 2GB
+    int pagesPerSegment;      // Number of pages per mapped region
+    int groupNum = 0;         // Number of groups of rows read
+    int rowsInPage = 0;       // Number of rows in the buffered page
+    int readCursor = 0;       // Cursor within the buffered page
+    long rowNum = 0;          // COLUMN_LAYOUT: next row to be read
+    long groupEnd = 0;        // COLUMN_LAYOUT: row after the last row of the current group
+    boolean completed = false;  // Whether the last page has been consumed
+    FileChannel in;           // Input file channel
+
+    public TableReader(String filename, Schema schema) {
+        this(filename, schema, false);
+    }
+
+    // mapped: decode the rows straight from a memory mapping of the file,
+    // served from the OS page cache without copying each page into the heap
+    public TableReader(String filename, Schema schema, boolean mapped) {
+        this.filename = filename;
+        this.schema = schema;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Checks whether the file is a page file, files written by the older
+     * ConvertTxtToTbl are a stream of serialized Tuple objects instead
+     **/
+    public static boolean isPageFile(String filename) {
+        try (DataInputStream din = new DataInputStream(new FileInputStream(filename))) {
+            return din.readInt() == TableWriter.MAGIC;
+        } catch (IOException io) {
+            return false;
+        }
+    }
+
+    /**
+     * Only the attributes marked here are decoded, and for COLUMN_LAYOUT
+     * only their pages are read. Must be set before open.
+     **/
+    public void setRequiredColumns(boolean[] required) {
+        this.required = required;
+    }
+
+    /**
+     * Only rows satisfying  attribute col exprtype value  are asked for, so the
+     * pages whose zone map rules this out are not read. Rows of the pages that
+     * are read are all returned, the caller still has to check the condition.
+     * Must be added before open.
+     **/
+    public void addFilter(int col, int exprtype, Object value) {
+        filterCols.add(col);
+        filterOps.add(exprtype);
+        filterValues.add(value);
+    }
+
+    // Number of pages (groups of rows for COLUMN_LAYOUT) skipped so far
+    public int getNumSkipped() {
+        return numSkipped;
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public int getPageSize() {
+        return pagesize;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    // Opens the file and reads the header page
+    public boolean open() {
+        int numCols;
+        try {
+            in = new RandomAccessFile(filename, "r").getChannel();
+            ByteBuffer header = ByteBuffer.allocate(TableWriter.HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != TableWriter.MAGIC || header.getInt() != TableWriter.VERSION) {
+                System.out.printf("%s:not a table page file\n", filename);
+                return false;
+            }
+            pagesize = header.getInt();
+            numCols = header.getInt();
+            numTuples = header.getLong();
+            numPages = header.getInt();
+            pagelayout = header.getInt();
+            zoneMapPage = header.getInt();
+            dictPage = header.getInt();
+            indexPage = header.getInt();
+            columnMapPage = header.getInt();
+            if (numCols != schema.getNumCols()) {
+                System.out.printf("%s:table file does not match the schema\n", filename);
+                return false;
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:reading the table file error\n", filename);
+            return false;
+        }
+        StringDictionary dict = null;
+        if (dictPage != 0) {
+            try {
+                in.position((long) dictPage * pagesize);
+                dict = StringDictionary.read(new DataInputStream(new BufferedInputStream(Channels.newInputStream(in))));
+            } catch (IOException io) {
+                System.out.printf("%s:reading the dictionary error\n", filename);
+                return false;
+            }
+        }
+        layout = new PageLayout(schema, dict);
+        pageOffsets = null;
+        if (indexPage != 0) {
+            try {
+                in.position((long) indexPage * pagesize);
+                DataInputStream din = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in)));
+                pageOffsets = new long[numPages + 1];
+                for (int i = 0; i <= numPages; ++i) {
+                    pageOffsets[i] = din.readLong();
+                }
+            } catch (IOException io) {
+                System.out.printf("%s:reading the page offsets error\n", filename);
+                return false;
+            }
+            compressed = new byte[LZBlock.maxCompressedLength(pagesize)];
+        }
+        mapping = mapped && pageOffsets == null;
+        if (pagelayout == TableWriter.COLUMN_LAYOUT) {
+            if (!readColumnMap(numCols)) return false;
+            numGroups = (int) ((numTuples + rowsPerGroup - 1) / rowsPerGroup);
+        } else {
+            numGroups = numPages;
+        }
+        pages = new ByteBuffer[pagelayout == TableWriter.COLUMN_LAYOUT ? numCols : 1];
+        pageBase = new int[pages.length];
+        if (mapping) {
+            pagesPerSegment = Integer.MAX_VALUE / pagesize;
+            segments = new MappedByteBuffer[(numPages + 1 + pagesPerSegment - 1) / pagesPerSegment];
+        } else {
+            for (int i = 0; i < pages.length; ++i) {
+                if (isRequired(i) || pagelayout == TableWriter.ROW_LAYOUT)
+                    pages[i] = ByteBuffer.allocate(pagesize);
+            }
+        }
+        zoneSize = ZoneMap.encodedSize(layout);
+        zones = null;
+        zonesInBuf = 0;
+        numSkipped = 0;
+        groupNum = 0;
+        rowsInPage = 0;
+        readCursor = 0;
+        rowNum = 0;
+        groupEnd = 0;
+        completed = false;
+        return true;
+    }
+
+    // Helper method to read the attribute of each data page of a COLUMN_LAYOUT file
+    // and list the pages of every attribute
+    private boolean readColumnMap(int numCols) {
+        valuesPerPage = new int[numCols];
+        int[] numColumnPages = new int[numCols];
+        int[] pageColumns = new int[numPages];
+        rowsPerGroup = 0;
+        for (int i = 0; i < numCols; ++i) {
+            valuesPerPage[i] = layout.valuesPerPage(i, pagesize);
+            rowsPerGroup = Math.max(rowsPerGroup, valuesPerPage[i]);
+        }
+        try {
+            in.position((long) columnMapPage * pagesize);
+            DataInputStream din = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in)));
+            for (int i = 0; i < numPages; ++i) {
+                pageColumns[i] = din.readInt();
+                numColumnPages[pageColumns[i]]++;
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:reading the column map error\n", filename);
+            return false;
+        }
+        columnPages = new int[numCols][];
+        for (int i = 0; i < numCols; ++i) {
+            columnPages[i] = new int[numColumnPages[i]];
+            numColumnPages[i] = 0;
+        }
+        for (int i = 0; i < numPages; ++i) {
+            int col = pageColumns[i];
+            columnPages[col][numColumnPages[col]++] = 1 + i;
+        }
+        pageNums = new int[numCols];
+        Arrays.fill(pageNums, -1);
+        return true;
+    }
+
+    private boolean isRequired(int col) {
+        return required == null || required[col];
+    }
+
+    // Returns the next tuple of the table, or null at the end of the table
+    public Tuple next() {
+        if (completed) return null;
+        if (pagelayout == TableWriter.COLUMN_LAYOUT) {
+            while (rowNum >= groupEnd) {
+                if (groupNum == numGroups) {
+                    completed = true;
+                    return null;
+                }
+                nextGroup();
+            }
+            Tuple tuple = layout.newTuple(required);
+            for (int i = 0; i < pages.length; ++i) {
+                if (isRequired(i)) {
+                    layout.decodeSlot(i, pages[i], valuePosition(i), tuple);
+                }
+            }
+            rowNum++;
+            return tuple;
+        }
+        while (readCursor >= rowsInPage) {
+            if (groupNum == numGroups) {
+                completed = true;
+                return null;
+            }
+            readGroup();
+        }
+        int pos = pageBase[0] + PageLayout.PAGE_HEADER_SIZE + readCursor * layout.getRowWidth();
+        Tuple tuple = layout.decode(pages[0], pos, required);
+        readCursor++;
+        return tuple;
+    }
+
+    /**
+     * Fills the batch with the next rows of the table, column by column, up
+     * to its capacity. The batch must have the slot kinds of getSlotKinds.
+     * Returns false at the end of the table
+     **/
+    public boolean nextColumns(ColumnBatch batch) {
+        if (pagelayout == TableWriter.COLUMN_LAYOUT) {
+            return nextColumnPages(batch);
+        }
+        while (!completed && !batch.isFull()) {
+            if (readCursor >= rowsInPage) {
+                if (groupNum == numGroups) {
+                    completed = true;
+                    break;
+                }
+                readGroup();
+                continue;
+            }
+            int count = Math.min(rowsInPage - readCursor, batch.MAX_SIZE - batch.numRows);
+            for (int i = 0; i < layout.getNumCols(); ++i) {
+                if (!isRequired(i)) continue;
+                int width = layout.getRowWidth();
+                int pos = pageBase[0] + PageLayout.PAGE_HEADER_SIZE + readCursor * width + layout.getOffset(i);
+                layout.decodeColumn(i, pages[0], pos, width, count, batch);
+            }
+            batch.addRows(count);
+            readCursor += count;
+        }
+        return !batch.isEmpty() || !completed;
+    }
+
+    // Helper method of nextColumns for COLUMN_LAYOUT: each step decodes the rows up to
+    // the end of the group or of the first buffered page of a required attribute to end
+    private boolean nextColumnPages(ColumnBatch batch) {
+        while (!completed && !batch.isFull()) {
+            if (rowNum >= groupEnd) {
+                if (groupNum == numGroups) {
+                    completed = true;
+                    break;
+                }
+                nextGroup();
+                continue;
+            }
+            int count = (int) Math.min(groupEnd - rowNum, batch.MAX_SIZE - batch.numRows);
+            int[] positions = new int[pages.length];
+            for (int i = 0; i < pages.length; ++i) {
+                if (!isRequired(i)) continue;
+                positions[i] = valuePosition(i);
+                count = Math.min(count, valuesPerPage[i] - (int) (rowNum % valuesPerPage[i]));
+            }
+            for (int i = 0; i < pages.length; ++i) {
+                if (!isRequired(i)) continue;
+                layout.decodeColumn(i, pages[i], positions[i], layout.getWidth(i), count, batch);
+            }
+            batch.addRows(count);
+            rowNum += count;
+        }
+        return !batch.isEmpty() || !completed;
+    }
+
+    /** Slot kinds of the tuples read, attributes that are not required are NULL_SLOT **/
+    public byte[] getSlotKinds() {
+        return layout.slotKinds(required);
+    }
+
+    // Helper method to read the next page of rows that may match the filters, for ROW_LAYOUT
+    private void readGroup() {
+        try {
+            skipGroups();
+            if (groupNum == numGroups) {
+                rowsInPage = 0;
+                readCursor = 0;
+                return;
+            }
+            readPage(1 + groupNum, 0);
+        } catch (IOException io) {
+            System.out.printf("%s:table file reading error\n", filename);
+            System.exit(1);
+        }
+        groupNum++;
+        rowsInPage = pages[0].getInt(pageBase[0]);
+        readCursor = 0;
+    }
+
+    // Helper method to move to the next group of rows that may match the filters, for
+    // COLUMN_LAYOUT. Its pages are read as its rows are, so the pages of an attribute
+    // that hold rows of skipped groups only are not read at all
+    private void nextGroup() {
+        try {
+            skipGroups();
+        } catch (IOException io) {
+            System.out.printf("%s:table file reading error\n", filename);
+            System.exit(1);
+        }
+        if (groupNum == numGroups) {
+            rowNum = groupEnd = numTuples;
+            return;
+        }
+        rowNum = (long) groupNum * rowsPerGroup;
+        groupEnd = Math.min(numTuples, rowNum + rowsPerGroup);
+        groupNum++;
+    }
+
+    // Helper method to step over the groups whose zone map rules out the filters
+    private void skipGroups() throws IOException {
+        while (groupNum < numGroups && !mayMatch(groupNum)) {
+            groupNum++;
+            numSkipped++;
+        }
+    }
+
+    // Helper method to get the position of the value of the attribute at rowNum,
+    // reading the page that holds it if it is not the buffered one
+    private int valuePosition(int col) {
+        int page = (int) (rowNum / valuesPerPage[col]);
+        if (pageNums[col] != page) {
+            try {
+                readPage(columnPages[col][page], col);
+            } catch (IOException io) {
+                System.out.printf("%s:table file reading error\n", filename);
+                System.exit(1);
+            }
+            pageNums[col] = page;
+        }
+        return pageBase[col] + PageLayout.PAGE_HEADER_SIZE + (int) (rowNum % valuesPerPage[col]) * layout.getWidth(col);
+    }
+
+    // Helper method to check the filters against the zone map of a group,
+    // the zone maps are read a page at a time as the scan goes along
+    private boolean mayMatch(int group) throws IOException {
+        if (filterCols.isEmpty() || zoneMapPage == 0) return true;
+        if (zones == null || group < zoneFirst || group >= zoneFirst + zonesInBuf) {
+            if (zones == null)
+                zones = ByteBuffer.allocate(Math.max(1, pagesize / zoneSize) * zoneSize);
+            zoneFirst = group;
+            zonesInBuf = Math.min(zones.capacity() / zoneSize, numGroups - group);
+            zones.clear();
+            zones.limit(zonesInBuf * zoneSize);
+            readFully(zones, (long) zoneMapPage * pagesize + (long) group * zoneSize);
+        }
+        ZoneMap zone = ZoneMap.decode(layout, zones, (group - zoneFirst) * zoneSize);
+        for (int i = 0; i < filterCols.size(); ++i) {
+            if (!zone.mayMatch(filterCols.get(i), filterOps.get(i), filterValues.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    // Helper method to read a page of the file with a single read,
+    // or to point at it within the mapped file
+    private void readPage(int filePage, int slot) throws IOException {
+        if (pageOffsets != null) {
+            readCompressedPage(filePage, slot);
+        } else if (mapping) {
+            int seg = filePage / pagesPerSegment;
+            if (segments[seg] == null) {
+                long start = (long) seg * pagesPerSegment * pagesize;
+                long length = Math.min((long) pagesPerSegment * pagesize, in.size() - start);
+                segments[seg] = in.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            pages[slot] = segments[seg];
+            pageBase[slot] = (filePage % pagesPerSegment) * pagesize;
+        } else {
+            pages[slot].clear();
+            readFully(pages[slot], (long) filePage * pagesize);
+        }
+    }
+
+    // Helper method to read a compressed page and decompress it into the page buffer
+    private void readCompressedPage(int filePage, int slot) throws IOException {
+        long offset = pageOffsets[filePage - 1];
+        int len = (int) (pageOffsets[filePage] - offset);
+        pages[slot].clear();
+        if (len == pagesize) {            // Stored as it is, it did not compress
+            readFully(pages[slot], offset);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(compressed, 0, len);
+        readFully(buf, offset);
+        if (LZBlock.decompress(compressed, 0, len, pages[slot].array(), 0) != pagesize) {
+            throw new IOException(filename + ": corrupted page " + filePage);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) {
+                throw new EOFException(filename);
+            }
+        }
+    }
+
+    // Closes the input file
+    public boolean close() {
+        pages = null;
+        zones = null;
+        segments = null;      // The mappings are released once unreachable
+        completed = true;
+        if (in != null) {
+            try {
+                in.close();
+                in = null;
+            } catch (IOException io) {
+                System.out.printf("%s:closing the table file error\n", filename);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * TableWriter writes the tuples of a base table into a page file
+ */
+
+package qp.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Page file format of a base table (<tablename>.tbl):
+ * Page 0 is the header page, followed by the data pages. Every page is
+ * exactly pagesize bytes and starts with the number of values it holds.
+ * ROW_LAYOUT: each data page holds whole rows, laid out by PageLayout.
+ * COLUMN_LAYOUT: each page holds the values of one attribute only, as many
+ * as fit its width, and the pages of every attribute are written as they
+ * fill up. All the pages of an attribute but its last are full, so the page
+ * holding a given row is known from the row number; the attribute of each
+ * data page is stored at the end of the file (the column map).
+ * A scan then only reads the pages of the attributes it needs.
+ * The data pages are followed by the zone maps, the minimum and maximum
+ * values of every attribute within each group of rows, so that a scan
+ * can skip the rows that cannot satisfy its selection conditions. A group
+ * is a page for ROW_LAYOUT, and for COLUMN_LAYOUT as many rows as fit in a
+ * page of the narrowest attribute.
+ * A dictionary encoded table stores the code of each STRING value in its
+ * pages, and the StringDictionary itself after the zone maps.
+ * The data pages of a compressed table are each compressed by LZBlock and
+ * stored back to back, so they no longer start at multiples of the page
+ * size; the file offset of every page is stored at the end of the file.
+ * A page that does not get smaller is stored as it is.
+ */
+public class TableWriter {
+
+    public static final int MAGIC = 0x51505442;  // "QPTB"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 64;    // Bytes of the header page that are in use
+
+    public static final int ROW_LAYOUT = 0;
+    public static final int COLUMN_LAYOUT = 1;
+
+    final String filename;    // Filename to write to
+    final Schema schema;      // Schema of the table
+    final int pagesize;       // Number of bytes per page
+    final int pagelayout;     // ROW_LAYOUT or COLUMN_LAYOUT
+    boolean dictionary = false;  // Whether STRING values are dictionary encoded
+    boolean compressed = false;  // Whether the data pages are compressed
+
+    PageLayout layout;        // Slot layout of the rows
+    int rowsPerPage;          // Number of rows per page (per group of rows for COLUMN_LAYOUT)
+    ByteBuffer[] pages;       // Pages currently being filled, one per attribute for COLUMN_LAYOUT
+    int rowsInPage = 0;       // Number of rows in the current page (group of rows for COLUMN_LAYOUT)
+    int[] valuesPerPage;      // COLUMN_LAYOUT: number of values per page of each attribute
+    int[] valuesInPage;       // COLUMN_LAYOUT: number of values in the current page of each attribute
+    int[] pageColumns;        // COLUMN_LAYOUT: attribute of each data page written
+    int numPage = 0;          // Number of data pages written
+    long numTuple = 0;        // Number of tuples added
+    FileChannel out;          // Output file channel
+    long[] pageOffsets;       // File offset of each compressed data page, and of the end of the last
+    byte[] compressBuf;       // Compressed bytes of the page being written
+
+    ZoneMap zone;             // Range of values within the current group of rows
+    ByteBuffer zoneBuf;       // Encoded zone map of the current group of rows
+    File zoneFile;            // Zone maps written so far, appended to the table file on close
+    FileChannel zoneOut;      // Output channel of the zone maps
+
+    // filename: Filename of the table file to write to
+    // pagesize: Number of bytes per page
+    public TableWriter(String filename, Schema schema, int pagesize) {
+        this(filename, schema, pagesize, ROW_LAYOUT);
+    }
+
+    public TableWriter(String filename, Schema schema, int pagesize, int pagelayout) {
+        this.filename = filename;
+        this.schema = schema;
+        this.pagesize = pagesize;
+        this.pagelayout = pagelayout;
+    }
+
+    /** Stores the STRING values as codes of a per-table dictionary, must be set before open **/
+    public void setDictionaryEncoded(boolean flag) {
+        this.dictionary = flag;
+    }
+
+    /** Compresses every data page of the table, must be set before open **/
+    public void setCompressed(boolean flag) {
+        this.compressed = flag;
+    }
+
+    public int getNumPage() {
+        return numPage;
+    }
+
+    public long getNumTuple() {
+        return numTuple;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    // Opens the file and reserves the header page
+    public boolean open() {
+        layout = new PageLayout(schema, dictionary ? new StringDictionary() : null);
+        int numPages;
+        int fewestRows;
+        if (pagelayout == COLUMN_LAYOUT) {
+            numPages = layout.getNumCols();
+            valuesPerPage = new int[numPages];
+            valuesInPage = new int[numPages];
+            pageColumns = new int[64];
+            rowsPerPage = 0;
+            fewestRows = Integer.MAX_VALUE;
+            for (int i = 0; i < numPages; ++i) {
+                valuesPerPage[i] = layout.valuesPerPage(i, pagesize);
+                rowsPerPage = Math.max(rowsPerPage, valuesPerPage[i]);
+                fewestRows = Math.min(fewestRows, valuesPerPage[i]);
+            }
+        } else {
+            rowsPerPage = layout.rowsPerPage(pagesize);
+            fewestRows = rowsPerPage;
+            numPages = 1;
+        }
+        if (fewestRows <= 0 || pagesize < HEADER_SIZE) {
+            System.out.printf("%s:page size %d too small for one row of %d bytes\n", filename, pagesize,
+                    layout.getRowWidth() + PageLayout.PAGE_HEADER_SIZE);
+            return false;
+        }
+        try {
+            out = new RandomAccessFile(filename, "rw").getChannel();
+            out.truncate(0);
+            out.position(pagesize);
+            zoneFile = new File(filename + ".zm");
+            zoneOut = new RandomAccessFile(zoneFile, "rw").getChannel();
+            zoneOut.truncate(0);
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            return false;
+        }
+        pages = new ByteBuffer[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pages[i] = ByteBuffer.allocate(pagesize);
+            pages[i].position(PageLayout.PAGE_HEADER_SIZE);
+        }
+        if (compressed) {
+            pageOffsets = new long[64];
+            pageOffsets[0] = pagesize;
+            compressBuf = new byte[LZBlock.maxCompressedLength(pagesize)];
+        }
+        zone = new ZoneMap(layout.getNumCols());
+        zoneBuf = ByteBuffer.allocate(ZoneMap.encodedSize(layout));
+        rowsInPage = 0;
+        numPage = 0;
+        numTuple = 0;
+        return true;
+    }
+
+    // Supplies a tuple to the table writer, a page is written once it is full
+    public boolean next(Tuple tuple) {
+        try {
+            if (pagelayout == COLUMN_LAYOUT) {
+                for (int i = 0; i < layout.getNumCols(); ++i) {
+                    int start = pages[i].position();
+                    layout.encodeColumn(i, tuple, pages[i]);
+                    pages[i].position(start + layout.getWidth(i));
+                    if (++valuesInPage[i] == valuesPerPage[i])
+                        writePage(i, valuesInPage[i]);
+                }
+            } else {
+                layout.encode(tuple, pages[0]);
+            }
+        } catch (IOException io) {
+            System.out.println(io.getMessage());
+            return false;
+        }
+        zone.update(tuple);
+        ++rowsInPage;
+        ++numTuple;
+        if (rowsInPage == rowsPerPage)
+            endGroup();
+        return true;
+    }
+
+    // Helper method to end the current group of rows: the row page is written, and so is the zone map
+    private void endGroup() {
+        if (pagelayout == ROW_LAYOUT)
+            writePage(0, rowsInPage);
+        writeZoneMap();
+    }
+
+    // Helper method to write the pages still being filled, at the end of the table
+    private void flushPages() {
+        if (pagelayout == COLUMN_LAYOUT) {
+            for (int i = 0; i < pages.length; ++i) {
+                if (valuesInPage[i] > 0)
+                    writePage(i, valuesInPage[i]);
+            }
+        }
+        if (rowsInPage > 0)
+            endGroup();
+    }
+
+    // Helper method to write the current page of the slot to the output file
+    private void writePage(int slot, int numValues) {
+        ByteBuffer page = pages[slot];
+        page.putInt(0, numValues);
+        page.clear();
+        try {
+            ByteBuffer data = page;
+            if (compressed) {
+                int len = LZBlock.compress(page.array(), 0, pagesize, compressBuf, 0);
+                if (len < pagesize) data = ByteBuffer.wrap(compressBuf, 0, len);
+            }
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            if (compressed) addPageOffset(out.position());
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        if (pagelayout == COLUMN_LAYOUT) {
+            if (numPage == pageColumns.length) {
+                pageColumns = Arrays.copyOf(pageColumns, 2 * pageColumns.length);
+            }
+            pageColumns[numPage] = slot;
+            valuesInPage[slot] = 0;
+        }
+        ++numPage;
+        page.clear();
+        Arrays.fill(page.array(), (byte) 0);
+        page.position(PageLayout.PAGE_HEADER_SIZE);
+    }
+
+    // Helper method to write the zone map of the current group of rows
+    private void writeZoneMap() {
+        zoneBuf.clear();
+        try {
+            zone.encode(layout, zoneBuf);
+            zoneBuf.flip();
+            while (zoneBuf.hasRemaining()) {
+                zoneOut.write(zoneBuf);
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:writing the zone maps error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        zone.reset();
+        rowsInPage = 0;
+    }
+
+    /**
+     * Appends all the pages of another table file, written with the same
+     * schema, page size and layout, after the rows added so far. The pages
+     * are copied as they are, so the table written by each loader thread can
+     * be concatenated without decoding it again. An unfilled page before the
+     * appended pages is legal as each page records its number of rows.
+     * Codes of different dictionaries differ, and the pages of an attribute
+     * must all be full but the last for COLUMN_LAYOUT, so the rows of these
+     * tables are decoded and added one by one instead
+     **/
+    public boolean append(String partfile) {
+        if (pagelayout == ROW_LAYOUT) flushPages();
+        TableReader part = new TableReader(partfile, schema);
+        if (!part.open()) return false;
+        if (part.pagesize != pagesize || part.pagelayout != pagelayout) {
+            System.out.printf("%s:page size or layout differs from %s\n", partfile, filename);
+            part.close();
+            return false;
+        }
+        if (pagelayout == COLUMN_LAYOUT || dictionary || part.dictPage != 0 || compressed != (part.indexPage != 0)) {
+            Tuple tuple;
+            while ((tuple = part.next()) != null) {
+                if (!next(tuple)) {
+                    part.close();
+                    return false;
+                }
+            }
+            return part.close();
+        }
+        try {
+            if (compressed) {
+                /** The offsets of the copied pages move by where they land in this file **/
+                long shift = out.position() - part.pageOffsets[0];
+                transfer(part.in, part.pageOffsets[0], part.pageOffsets[part.numPages] - part.pageOffsets[0], out);
+                for (int i = 1; i <= part.numPages; ++i) {
+                    addPageOffset(part.pageOffsets[i] + shift);
+                    ++numPage;
+                }
+            } else {
+                transfer(part.in, (long) pagesize, (long) part.numPages * pagesize, out);
+                numPage += part.numPages;
+            }
+            if (part.zoneMapPage != 0) {
+                long zonebytes = (long) part.numGroups * ZoneMap.encodedSize(layout);
+                transfer(part.in, (long) part.zoneMapPage * pagesize, zonebytes, zoneOut);
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:appending %s error\n", filename, partfile);
+            System.out.println(io);
+            part.close();
+            return false;
+        }
+        numTuple += part.numTuples;
+        return part.close();
+    }
+
+    // Helper method to record the end of the data page just written
+    private void addPageOffset(long offset) {
+        if (numPage + 1 == pageOffsets.length) {
+            pageOffsets = Arrays.copyOf(pageOffsets, 2 * pageOffsets.length);
+        }
+        pageOffsets[numPage + 1] = offset;
+    }
+
+    // Helper method to copy a region of a file to the current position of the output channel
+    private static void transfer(FileChannel src, long position, long count, FileChannel dst) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = src.transferTo(position + done, count - done, dst);
+            if (n <= 0) throw new EOFException();
+            done += n;
+        }
+    }
+
+    // Fills in the header page and closes the file
+    public boolean close() {
+        if (out == null) return true;
+        flushPages();                      // Unfilled pages (if any) will be flushed to the file
+        int zoneMapPage = 0;               // The zone maps start on the page after the last data page
+        int dictPage = 0;                  // The dictionary starts on the page after the zone maps
+        int indexPage = 0;                 // The page offsets start on the page after the dictionary
+        int columnMapPage = 0;             // The column map starts on the page after the page offsets
+        try {
+            zoneMapPage = (int) ((out.position() + pagesize - 1) / pagesize);
+            out.position((long) zoneMapPage * pagesize);
+            transfer(zoneOut, 0, zoneOut.size(), out);
+            zoneOut.close();
+            zoneOut = null;
+            zoneFile.delete();
+            if (dictionary) {
+                dictPage = (int) ((out.position() + pagesize - 1) / pagesize);
+                out.position((long) dictPage * pagesize);
+                DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                layout.getDictionary().write(dout);
+                dout.flush();
+            }
+            if (compressed) {
+                indexPage = (int) ((out.position() + pagesize - 1) / pagesize);
+                out.position((long) indexPage * pagesize);
+                DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                for (int i = 0; i <= numPage; ++i) {
+                    dout.writeLong(pageOffsets[i]);
+                }
+                dout.flush();
+            }
+            if (pagelayout == COLUMN_LAYOUT) {
+                columnMapPage = (int) ((out.position() + pagesize - 1) / pagesize);
+                out.position((long) columnMapPage * pagesize);
+                DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                for (int i = 0; i < numPage; ++i) {
+                    dout.writeInt(pageColumns[i]);
+                }
+                dout.flush();
+            }
+        } catch (IOException io) {
+            System.out.printf("%s:writing the zone maps error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        ByteBuffer header = ByteBuffer.allocate(pagesize);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(pagesize);
+        header.putInt(layout.getNumCols());
+        header.putLong(numTuple);
+        header.putInt(numPage);
+        header.putInt(pagelayout);
+        header.putInt(zoneMapPage);
+        header.putInt(dictPage);
+        header.putInt(indexPage);
+        header.putInt(columnMapPage);
+        header.clear();
+        try {
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.close();
+            out = null;
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+        return true;
+    }
+}
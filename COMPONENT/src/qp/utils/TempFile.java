@@ -0,0 +1,52 @@
+/**
+ * Streams of the temporary files written by the operators
+ **/
+
+package qp.utils;
+
+import java.io.*;
+
+/**
+ * Sorted runs, materialized join inputs and the files of TupleWriter are
+ * all opened here, so that they can be block compressed (see
+ * BlockOutputStream) when I/O is the bottleneck rather than CPU. The tuples
+ * are written with the binary codec of TupleOutputStream.
+ */
+public class TempFile {
+
+    static boolean compressed = false;  // Whether the temporary files are block compressed
+
+    public static void setCompressed(boolean flag) {
+        compressed = flag;
+    }
+
+    public static boolean isCompressed() {
+        return compressed;
+    }
+
+    /** Opens a file for tuples of the schema, see TupleOutputStream **/
+    public static TupleOutputStream openOutput(File file, Schema schema) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (compressed) {
+            out = new BlockOutputStream(out);
+        }
+        return new TupleOutputStream(out, schema);
+    }
+
+    public static TupleOutputStream openOutput(String filename, Schema schema) throws IOException {
+        return openOutput(new File(filename), schema);
+    }
+
+    /** Opens a file written with openOutput and the same schema **/
+    public static TupleInputStream openInput(File file, Schema schema) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (compressed) {
+            in = new BlockInputStream(in);
+        }
+        return new TupleInputStream(in, schema);
+    }
+
+    public static TupleInputStream openInput(String filename, Schema schema) throws IOException {
+        return openInput(new File(filename), schema);
+    }
+}
@@ -8,26 +8,124 @@ import java.util.*;
 import java.io.*;
 
 /**
- * Tuple - a simple object which holds an ArrayList of data
+ * Tuple - holds the values of a row in typed slots. INTEGER values and the
+ * bits of REAL values are kept in an int array, so they are not boxed, and
+ * the other values (strings) in an Object array that is only allocated when
+ * there are some. The kind of each slot is kept in a byte array that the
+ * tuples decoded from the same table share.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1928781161746223552L;
-    public ArrayList<Object> _data;
+
+    /**
+     * Tuples used to be serialized as their single ArrayList field _data. The
+     * same field is still declared, so tables and files written that way can
+     * be read; it is written as null and followed by the typed slots
+     **/
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("_data", ArrayList.class)
+    };
+
+    public static final byte NULL_SLOT = 0;    // Value is null, e.g. an attribute that was not read
+    public static final byte INT_SLOT = 1;     // INTEGER value in values
+    public static final byte REAL_SLOT = 2;    // Bits of a REAL value in values
+    public static final byte OBJECT_SLOT = 3;  // Any other value in refs
+
+    byte[] kinds;      // Kind of each slot, may be shared with other tuples
+    int[] values;      // INTEGER value or float bits of the REAL value of each slot
+    Object[] refs;     // Value of each OBJECT_SLOT (null if there are none)
 
     public Tuple(ArrayList<Object> d) {
-        _data = d;
+        setData(d);
+    }
+
+    /** The kinds array is not copied, so it must not be changed afterwards **/
+    Tuple(byte[] kinds, int[] values, Object[] refs) {
+        this.kinds = kinds;
+        this.values = values;
+        this.refs = refs;
+    }
+
+    // Helper method to fill the slots from boxed values
+    private void setData(List<Object> d) {
+        int n = d.size();
+        kinds = new byte[n];
+        values = new int[n];
+        for (int i = 0; i < n; ++i) {
+            Object value = d.get(i);
+            if (value instanceof Integer) {
+                kinds[i] = INT_SLOT;
+                values[i] = (Integer) value;
+            } else if (value instanceof Float) {
+                kinds[i] = REAL_SLOT;
+                values[i] = Float.floatToRawIntBits((Float) value);
+            } else if (value != null) {
+                kinds[i] = OBJECT_SLOT;
+                if (refs == null) refs = new Object[n];
+                refs[i] = value;
+            }
+        }
     }
 
     /**
-     * Accessor for data
+     * Accessor for data, returns a copy of the values with the
+     * INTEGER and REAL values boxed
      */
     public ArrayList<Object> data() {
-        return _data;
+        int n = size();
+        ArrayList<Object> data = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            data.add(dataAt(i));
+        }
+        return data;
     }
 
+    /** Value of the slot, INTEGER and REAL values are boxed **/
     public Object dataAt(int index) {
-        return _data.get(index);
+        switch (kinds[index]) {
+            case INT_SLOT:
+                return values[index];
+            case REAL_SLOT:
+                return Float.intBitsToFloat(values[index]);
+            case OBJECT_SLOT:
+                return refs[index];
+            default:
+                return null;
+        }
+    }
+
+    /** Number of values **/
+    public int size() {
+        return kinds.length;
+    }
+
+    /** NULL_SLOT, INT_SLOT, REAL_SLOT or OBJECT_SLOT **/
+    public byte kindAt(int index) {
+        return kinds[index];
+    }
+
+    /** Value of an INT_SLOT **/
+    public int getInt(int index) {
+        return values[index];
+    }
+
+    /** Value of a REAL_SLOT **/
+    public float getFloat(int index) {
+        return Float.intBitsToFloat(values[index]);
+    }
+
+    /** INTEGER value or float bits of the REAL value of a slot **/
+    int valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Tuple holding its own values in its slots, e.g. to be stored or
+     * written out. This one, unless it refers to other tuples (JoinedTuple)
+     **/
+    public Tuple materialize() {
+        return this;
     }
 
     /**
@@ -35,12 +133,7 @@ public class Tuple implements Serializable {
      * * before performing actual join operation
      **/
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
+        return equalSlots(this, leftindex, right, rightindex);
     }
 
     /**
@@ -51,15 +144,76 @@ public class Tuple implements Serializable {
         if (leftindex.size() != rightindex.size())
             return false;
         for (int i = 0; i < leftindex.size(); ++i) {
-            Object leftData = dataAt(leftindex.get(i));
-            Object rightData = right.dataAt(rightindex.get(i));
-            if (!leftData.equals(rightData)) {
+            if (!equalSlots(this, leftindex.get(i), right, rightindex.get(i))) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Checks whether two values are equal. A DictString may meet a plain
+     * String, e.g. once read back from a sorted run, and String.equals
+     * does not know about DictString
+     **/
+    public static boolean equalValues(Object left, Object right) {
+        if (right instanceof DictString) {
+            return right.equals(left);
+        }
+        return left.equals(right);
+    }
+
+    /** Checks whether the values of two slots are equal, without boxing them **/
+    public static boolean equalSlots(Tuple left, int leftIndex, Tuple right, int rightIndex) {
+        byte kind = left.kindAt(leftIndex);
+        if (kind != right.kindAt(rightIndex)) {
+            return equalValues(left.dataAt(leftIndex), right.dataAt(rightIndex));
+        }
+        switch (kind) {
+            case INT_SLOT:
+                return left.valueAt(leftIndex) == right.valueAt(rightIndex);
+            case REAL_SLOT:  // Same as Float.equals
+                return Float.floatToIntBits(left.getFloat(leftIndex)) == Float.floatToIntBits(right.getFloat(rightIndex));
+            default:
+                return equalValues(left.dataAt(leftIndex), right.dataAt(rightIndex));
+        }
+    }
+
+    /**
+     * Hash value of the join attributes of the tuple, equal for any two
+     * tuples whose slots at the index are equal (see equalSlots):
+     * a DictString hashes as its String
+     **/
+    public static int hashSlots(Tuple tuple, ArrayList<Integer> index) {
+        int hash = 0;
+        for (int i = 0; i < index.size(); ++i) {
+            int slot = index.get(i);
+            byte kind = tuple.kindAt(slot);
+            int value;
+            if (kind == INT_SLOT) {
+                value = tuple.getInt(slot);
+            } else if (kind == REAL_SLOT) {
+                value = Float.floatToIntBits(tuple.getFloat(slot));
+            } else if (kind == NULL_SLOT) {
+                value = 0;
+            } else {
+                value = tuple.dataAt(slot).hashCode();
+            }
+            hash = 31 * hash + value;
+        }
+        return hash;
+    }
+
+    /** Compares two STRING values, each either a String or a DictString **/
+    public static int compareStrings(Object left, Object right) {
+        if (left instanceof DictString) {
+            return ((DictString) left).compareTo(right);
+        } else if (right instanceof DictString) {
+            return -((DictString) right).compareTo(left);
+        }
+        return ((String) left).compareTo((String) right);
+    }
+
     /**
      * Checks whether the join condition is satisfied or not with multiple conditions
      * * before performing actual join operation
@@ -93,12 +247,39 @@ public class Tuple implements Serializable {
     }
 
     /**
-     * Joining two tuples without duplicate column elimination
+     * Joining two tuples without duplicate column elimination. The values
+     * are not copied: the result refers to both tuples (see JoinedTuple)
      **/
     public Tuple joinWith(Tuple right) {
-        ArrayList<Object> newData = new ArrayList<>(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        return new JoinedTuple(this, right);
+    }
+
+    /**
+     * Tuple of the values at the given indexes, in that order. The slot
+     * kinds are shared with the tuple like, e.g. the previous one projected,
+     * if they are the same
+     **/
+    public Tuple project(int[] indexes, Tuple like) {
+        byte[] newKinds = like == null ? null : like.kinds;
+        for (int i = 0; newKinds != null && i < indexes.length; ++i) {
+            if (newKinds.length != indexes.length || newKinds[i] != kindAt(indexes[i])) newKinds = null;
+        }
+        if (newKinds == null) {
+            newKinds = new byte[indexes.length];
+            for (int i = 0; i < indexes.length; ++i) {
+                newKinds[i] = kindAt(indexes[i]);
+            }
+        }
+        int[] newValues = new int[indexes.length];
+        Object[] newRefs = null;
+        for (int i = 0; i < indexes.length; ++i) {
+            newValues[i] = valueAt(indexes[i]);
+            if (newKinds[i] == OBJECT_SLOT) {
+                if (newRefs == null) newRefs = new Object[indexes.length];
+                newRefs[i] = dataAt(indexes[i]);
+            }
+        }
+        return new Tuple(newKinds, newValues, newRefs);
     }
 
     /**
@@ -112,14 +293,16 @@ public class Tuple implements Serializable {
      * Comparing tuples in different tables, used for join condition checking
      **/
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
+        byte kind = left.kindAt(leftIndex);
+        if (kind == INT_SLOT) {
+            return Integer.compare(left.valueAt(leftIndex), right.valueAt(rightIndex));
+        } else if (kind == REAL_SLOT) {
+            return Float.compare(left.getFloat(leftIndex), right.getFloat(rightIndex));
+        }
         Object leftdata = left.dataAt(leftIndex);
         Object rightdata = right.dataAt(rightIndex);
-        if (leftdata instanceof Integer) {
-            return ((Integer) leftdata).compareTo((Integer) rightdata);
-        } else if (leftdata instanceof String) {
-            return ((String) leftdata).compareTo((String) rightdata);
-        } else if (leftdata instanceof Float) {
-            return ((Float) leftdata).compareTo((Float) rightdata);
+        if (leftdata instanceof String || leftdata instanceof DictString) {
+            return compareStrings(leftdata, rightdata);
         } else {
             System.out.println("Tuple: Unknown comparision of the tuples");
             System.exit(1);
@@ -137,21 +320,48 @@ public class Tuple implements Serializable {
             return 0;
         }
         for (int i = 0; i < leftIndex.size(); ++i) {
-            Object leftdata = left.dataAt(leftIndex.get(i));
-            Object rightdata = right.dataAt(rightIndex.get(i));
-            if (leftdata.equals(rightdata)) continue;
-            if (leftdata instanceof Integer) {
-                return ((Integer) leftdata).compareTo((Integer) rightdata);
-            } else if (leftdata instanceof String) {
-                return ((String) leftdata).compareTo((String) rightdata);
-            } else if (leftdata instanceof Float) {
-                return ((Float) leftdata).compareTo((Float) rightdata);
-            } else {
-                System.out.println("Tuple: Unknown comparision of the tuples");
-                System.exit(1);
-                return 0;
-            }
+            int leftindex = leftIndex.get(i);
+            int rightindex = rightIndex.get(i);
+            if (equalSlots(left, leftindex, right, rightindex)) continue;
+            return compareTuples(left, right, leftindex, rightindex);
         }
         return 0;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_data", null);
+        out.writeFields();
+        out.writeInt(kinds.length);
+        out.write(kinds);
+        for (int i = 0; i < kinds.length; ++i) {
+            if (kinds[i] == INT_SLOT || kinds[i] == REAL_SLOT) {
+                out.writeInt(values[i]);
+            } else if (kinds[i] == OBJECT_SLOT) {
+                out.writeObject(refs[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        ArrayList<Object> data = (ArrayList<Object>) fields.get("_data", null);
+        if (data != null) {
+            setData(data);  // Written before the typed slots
+            return;
+        }
+        int n = in.readInt();
+        kinds = new byte[n];
+        in.readFully(kinds);
+        values = new int[n];
+        for (int i = 0; i < n; ++i) {
+            if (kinds[i] == INT_SLOT || kinds[i] == REAL_SLOT) {
+                values[i] = in.readInt();
+            } else if (kinds[i] == OBJECT_SLOT) {
+                if (refs == null) refs = new Object[n];
+                refs[i] = in.readObject();
+            }
+        }
+    }
 }
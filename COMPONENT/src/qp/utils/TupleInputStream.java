@@ -0,0 +1,119 @@
+/**
+ * Reads back the tuples written by TupleOutputStream
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * TupleInputStream decodes the tuples of a temporary file written by
+ * TupleOutputStream with the same schema. Tuples without null values share
+ * the slot kinds of the schema, and so do tuples with the same null slots
+ * read one after the other.
+ */
+public class TupleInputStream implements Closeable {
+
+    DataInputStream in;    // Stream read from
+    byte[] kinds;          // Slot kinds of the schema (null: read with every tuple)
+    byte[] nulls;          // Null bitmap of the tuple being read
+    byte[] lastKinds;      // Slot kinds of the previous tuple with null values
+    boolean ended;         // Whether the end marker has been read
+
+    /** Schema the tuples were written with, may be null **/
+    public TupleInputStream(InputStream in, Schema schema) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (schema != null) {
+            kinds = TupleOutputStream.slotKinds(schema);
+            nulls = new byte[(kinds.length + 7) / 8];
+        }
+    }
+
+    /** Returns the next tuple, or null at the end of the file **/
+    public Tuple readTuple() throws IOException {
+        if (ended) return null;
+        int marker = in.read();
+        if (marker == TupleOutputStream.END || marker < 0) {
+            ended = true;
+            return null;
+        }
+        byte[] tupleKinds;
+        if (marker == TupleOutputStream.TUPLE) {
+            in.readFully(nulls);
+            tupleKinds = withNulls();
+        } else if (marker == TupleOutputStream.TUPLE_KINDS) {
+            tupleKinds = new byte[in.readUnsignedShort()];
+            in.readFully(tupleKinds);
+        } else {
+            throw new IOException("TupleInputStream: corrupted temporary file");
+        }
+        int n = tupleKinds.length;
+        int[] values = new int[n];
+        Object[] refs = null;
+        for (int i = 0; i < n; ++i) {
+            switch (tupleKinds[i]) {
+                case Tuple.INT_SLOT:
+                case Tuple.REAL_SLOT:
+                    values[i] = in.readInt();
+                    break;
+                case Tuple.OBJECT_SLOT:
+                    if (refs == null) refs = new Object[n];
+                    refs[i] = in.readUTF();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Tuple(tupleKinds, values, refs);
+    }
+
+    /**
+     * Returns a batch of up to batchsize next tuples. Throws EOFException
+     * when there are none left, as reading a serialized Batch did
+     **/
+    public Batch readBatch(int batchsize) throws IOException {
+        return readBatch(null, batchsize);
+    }
+
+    /**
+     * Same as readBatch(batchsize), but fills the given batch again if it has
+     * that capacity, e.g. the previous batch once its tuples were used
+     **/
+    public Batch readBatch(Batch batch, int batchsize) throws IOException {
+        if (batch == null || batch.capacity() != batchsize) {
+            batch = new Batch(batchsize);
+        }
+        batch.clear();
+        while (!batch.isFull()) {
+            Tuple t = readTuple();
+            if (t == null) break;
+            batch.add(t);
+        }
+        if (batch.isEmpty()) {
+            throw new EOFException();
+        }
+        return batch;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Helper method to get the slot kinds of the schema with the null slots of the bitmap
+    private byte[] withNulls() {
+        boolean none = true;
+        for (byte b : nulls) {
+            none &= b == 0;
+        }
+        if (none) return kinds;
+        byte[] result = kinds.clone();
+        for (int i = 0; i < result.length; ++i) {
+            if ((nulls[i / 8] & (1 << (i % 8))) != 0) result[i] = Tuple.NULL_SLOT;
+        }
+        if (!Arrays.equals(result, lastKinds)) {
+            lastKinds = result;
+        }
+        return lastKinds;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Binary stream of tuples for the temporary files
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * TupleOutputStream writes tuples in a compact binary form driven by the
+ * schema of the tuples, instead of serializing them as objects: there is
+ * no class metadata and no table of the objects written, which kept every
+ * tuple of a spill reachable until the stream was closed.
+ * Each tuple starts with a marker byte. TUPLE is followed by a bitmap of the
+ * null slots and the values of the other slots in the order of the schema:
+ * 4 bytes for an INTEGER or REAL (its float bits), modified UTF-8 for a
+ * STRING. A tuple whose slots do not have the kinds of the schema, or one
+ * written without a schema, is marked TUPLE_KINDS and its kind bytes
+ * come first instead of the bitmap. END closes the stream.
+ * See TupleInputStream for reading it back.
+ */
+public class TupleOutputStream implements Closeable {
+
+    static final byte END = 0;          // No more tuples
+    static final byte TUPLE = 1;        // Tuple with the slot kinds of the schema
+    static final byte TUPLE_KINDS = 2;  // Tuple with its own slot kinds
+
+    DataOutputStream out;  // Stream written to
+    byte[] kinds;          // Slot kinds of the schema (null: written with every tuple)
+    byte[] nulls;          // Null bitmap of the tuple being written
+
+    /** Schema of the tuples written, may be null **/
+    public TupleOutputStream(OutputStream out, Schema schema) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        if (schema != null) {
+            kinds = slotKinds(schema);
+            nulls = new byte[(kinds.length + 7) / 8];
+        }
+    }
+
+    /** Slot kinds of the tuples of the schema when none of the values is null **/
+    static byte[] slotKinds(Schema schema) {
+        byte[] kinds = new byte[schema.getNumCols()];
+        for (int i = 0; i < kinds.length; ++i) {
+            int type = schema.getAttribute(i).getType();
+            if (type == Attribute.INT) {
+                kinds[i] = Tuple.INT_SLOT;
+            } else if (type == Attribute.REAL) {
+                kinds[i] = Tuple.REAL_SLOT;
+            } else {
+                kinds[i] = Tuple.OBJECT_SLOT;
+            }
+        }
+        return kinds;
+    }
+
+    public void writeTuple(Tuple t) throws IOException {
+        t = t.materialize();
+        if (kinds != null && fitsSchema(t)) {
+            out.writeByte(TUPLE);
+            out.write(nulls);
+        } else {
+            out.writeByte(TUPLE_KINDS);
+            out.writeShort(t.kinds.length);
+            out.write(t.kinds);
+        }
+        for (int i = 0; i < t.kinds.length; ++i) {
+            switch (t.kinds[i]) {
+                case Tuple.INT_SLOT:
+                case Tuple.REAL_SLOT:
+                    out.writeInt(t.values[i]);
+                    break;
+                case Tuple.OBJECT_SLOT:
+                    writeString(t.refs[i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /** Writes all the tuples of the batch **/
+    public void writeBatch(Batch batch) throws IOException {
+        for (int i = 0; i < batch.size(); ++i) {
+            writeTuple(batch.get(i));
+        }
+    }
+
+    /** Writes the end marker and closes the file **/
+    public void close() throws IOException {
+        out.writeByte(END);
+        out.close();
+    }
+
+    // Helper method to check the slot kinds of the tuple against the schema,
+    // filling the null bitmap as it goes
+    private boolean fitsSchema(Tuple t) {
+        if (t.kinds == kinds) {
+            Arrays.fill(nulls, (byte) 0);
+            return true;
+        }
+        if (t.kinds.length != kinds.length) return false;
+        Arrays.fill(nulls, (byte) 0);
+        for (int i = 0; i < kinds.length; ++i) {
+            if (t.kinds[i] == Tuple.NULL_SLOT) {
+                nulls[i / 8] |= (byte) (1 << (i % 8));
+            } else if (t.kinds[i] != kinds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Helper method to write a STRING value, a DictString as its string
+    private void writeString(Object value) throws IOException {
+        if (!(value instanceof String) && !(value instanceof DictString)) {
+            throw new IOException("TupleOutputStream: cannot write value " + value);
+        }
+        out.writeUTF(value.toString());
+    }
+}
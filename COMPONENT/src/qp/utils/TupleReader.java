@@ -13,6 +13,7 @@ public class TupleReader {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final Schema schema;        // Schema the tuples were written with (null: none)
 
     Batch inBatch;                            // Currently buffered input
     int readCursor = 0;                    // Cursor within inBatch
@@ -20,12 +21,18 @@ public class TupleReader {
     int numBatch = 0;                        // Number of batch read
     int numTuple = 0;                        // Number of tuples read
     Tuple peekTuple = null;            // The next tuple of the batch (if peeked)
-    ObjectInputStream in;                // Input file stream
+    TupleInputStream in;                 // Input file stream
 
     // filename: Filename of the output file to read from
     // batchsize: Number of tuples per batch
     public TupleReader(String filename, int batchsize) {
+        this(filename, null, batchsize);
+    }
+
+    // schema: Schema given to the TupleWriter of the file
+    public TupleReader(String filename, Schema schema, int batchsize) {
         this.filename = filename;
+        this.schema = schema;
         this.batchsize = batchsize;
     }
 
@@ -54,7 +61,7 @@ public class TupleReader {
     // Opens the input file and initializes the class for reading
     public boolean open() {
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            in = TempFile.openInput(filename, schema);
         } catch (IOException io) {
             System.out.printf("%s:reading the temporary file error", filename);
             return false;
@@ -79,7 +86,7 @@ public class TupleReader {
         if (inBatch == null) {
             try {
                 while (true) {
-                    inBatch = (Batch) in.readObject();
+                    inBatch = in.readBatch(batchsize);
                     numBatch++;
                     if (inBatch.size() > 0) break;
                 }
@@ -89,9 +96,6 @@ public class TupleReader {
                 completed = true;
                 this.close();
                 return null;
-            } catch (ClassNotFoundException c) {
-                System.out.printf("%s:Some error in deserialization\n", filename);
-                System.exit(1);
             } catch (IOException io) {
                 System.out.printf("%s:temporary file reading error\n", filename);
                 System.exit(1);
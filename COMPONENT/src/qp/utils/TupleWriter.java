@@ -13,16 +13,23 @@ public class TupleWriter {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final Schema schema;        // Schema of the tuples (null: written with the slot kinds of every tuple)
 
     Batch outBatch;
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
-    ObjectOutputStream out;            // Output file stream
+    TupleOutputStream out;             // Output file stream
 
     // filename: Filename of the output file to write to
     // batchsize: Number of tuples per batch
     public TupleWriter(String filename, int batchsize) {
+        this(filename, null, batchsize);
+    }
+
+    // schema: Schema of the tuples, read back with a TupleReader of the same schema
+    public TupleWriter(String filename, Schema schema, int batchsize) {
         this.filename = filename;
+        this.schema = schema;
         this.batchsize = batchsize;
     }
 
@@ -45,7 +52,7 @@ public class TupleWriter {
     // Opens the file and initializes the class for writing
     public boolean open() {
         try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
+            out = TempFile.openOutput(filename, schema);
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
             return false;
@@ -72,7 +79,7 @@ public class TupleWriter {
     // Helper method to write a single batch to the output file
     private void writeBatch() {
         try {
-            out.writeObject(outBatch);
+            out.writeBatch(outBatch);
             outBatch = null;        // deallocate output buffer --> saves memory
             ++numBatch;
         } catch (IOException io) {
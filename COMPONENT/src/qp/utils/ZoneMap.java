@@ -0,0 +1,110 @@
+/**
+ * Minimum and maximum value of every attribute over a group of rows
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * TableWriter keeps one ZoneMap per page (per group of pages for the column
+ * layout) and stores it as two rows: the minimums followed by the maximums.
+ * A scan with a selection condition on a constant can then skip the pages
+ * whose range of values cannot satisfy the condition.
+ */
+public class ZoneMap {
+
+    Object[] min;   // Smallest value of each attribute
+    Object[] max;   // Largest value of each attribute
+
+    public ZoneMap(int numCols) {
+        min = new Object[numCols];
+        max = new Object[numCols];
+    }
+
+    public void reset() {
+        for (int i = 0; i < min.length; ++i) {
+            min[i] = null;
+            max[i] = null;
+        }
+    }
+
+    public Object getMin(int col) {
+        return min[col];
+    }
+
+    public Object getMax(int col) {
+        return max[col];
+    }
+
+    /** Widens the ranges to include the values of this tuple **/
+    @SuppressWarnings("unchecked")
+    public void update(Tuple tuple) {
+        for (int i = 0; i < min.length; ++i) {
+            Object value = tuple.dataAt(i);
+            if (value == null) continue;
+            if (min[i] == null || ((Comparable<Object>) value).compareTo(min[i]) < 0) min[i] = value;
+            if (max[i] == null || ((Comparable<Object>) value).compareTo(max[i]) > 0) max[i] = value;
+        }
+    }
+
+    /** Writes the minimum and maximum rows at the current position of the buffer **/
+    public void encode(PageLayout layout, ByteBuffer buf) throws IOException {
+        layout.encode(toTuple(min), buf);
+        layout.encode(toTuple(max), buf);
+    }
+
+    /** Reads the zone map stored at the given absolute position of the buffer **/
+    public static ZoneMap decode(PageLayout layout, ByteBuffer buf, int pos) {
+        ZoneMap zone = new ZoneMap(layout.getNumCols());
+        Tuple mintuple = layout.decode(buf, pos);
+        Tuple maxtuple = layout.decode(buf, pos + layout.getRowWidth());
+        for (int i = 0; i < zone.min.length; ++i) {
+            zone.min[i] = mintuple.dataAt(i);
+            zone.max[i] = maxtuple.dataAt(i);
+        }
+        return zone;
+    }
+
+    /** Number of bytes of a stored zone map **/
+    public static int encodedSize(PageLayout layout) {
+        return 2 * layout.getRowWidth();
+    }
+
+    /**
+     * Returns false only if no value within the range of the attribute
+     * can satisfy  value exprtype constant, e.g. Condition.LESSTHAN
+     **/
+    @SuppressWarnings("unchecked")
+    public boolean mayMatch(int col, int exprtype, Object constant) {
+        if (min[col] == null || constant == null) return true;
+        int mincmp = ((Comparable<Object>) min[col]).compareTo(constant);
+        int maxcmp = ((Comparable<Object>) max[col]).compareTo(constant);
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return mincmp < 0;
+            case Condition.LTOE:
+                return mincmp <= 0;
+            case Condition.GREATERTHAN:
+                return maxcmp > 0;
+            case Condition.GTOE:
+                return maxcmp >= 0;
+            case Condition.EQUAL:
+                return mincmp <= 0 && maxcmp >= 0;
+            case Condition.NOTEQUAL:
+                return !(mincmp == 0 && maxcmp == 0);
+            default:
+                return true;
+        }
+    }
+
+    private static Tuple toTuple(Object[] values) {
+        ArrayList<Object> data = new ArrayList<>(values.length);
+        for (Object value : values) {
+            data.add(value);
+        }
+        return new Tuple(data);
+    }
+}